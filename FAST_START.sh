@@ -0,0 +1,82 @@
+#!/bin/bash
+
+#
+# Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+#
+# Builds the fast start variant (Spring AOT + AppCDS) into fast-start/
+#
+#   ./FAST_START.sh           build, extract and AppCDS training run
+#   ./FAST_START.sh crac      additionally create a CRaC checkpoint
+#
+# run afterwards with
+#
+#   fast-start/run.sh sync [options]
+#
+# the AOT context is generated for the batch launcher, so only 'sync'
+# runs are supported by the fast start build
+#
+# the CRaC checkpoint is taken from the 'crac-restore' command after the
+# context refresh, no sync runs at checkpoint time. 'fast-start/run.sh'
+# restores the checkpoint and passes its arguments (default 'sync') to
+# the restored process through fast-start/crac.args. The log levels and
+# JAVA_OPTS of the checkpoint are kept by the restored process.
+#
+# the start-up time is measured with ./STARTUP_BENCHMARK.sh
+#
+
+DIR=fast-start
+JAVA_OPTS="-Dspring.aot.enabled=true -Dstartup.warmup=true $JAVA_OPTS"
+
+if [ "$1" = "crac" ]; then
+  ./mvnw -DskipTests=true -Pfast-start,crac clean package
+else
+  ./mvnw -DskipTests=true -Pfast-start clean package
+fi
+
+rm -rf $DIR
+java -Djarmode=tools -jar target/ldap2zammad.jar extract --destination $DIR
+
+# training run, the sync path classes are loaded by a dry run
+java $JAVA_OPTS -XX:ArchiveClassesAtExit=$DIR/ldap2zammad.jsa \
+  -jar $DIR/ldap2zammad.jar sync --dry-run
+
+if [ "$1" = "crac" ]; then
+  # the checkpoint is taken after the context refresh and the script
+  # engine warmup, 'crac-restore' does not sync
+  java $JAVA_OPTS -XX:CRaCCheckpointTo=$DIR/crac \
+    -Dspring.context.checkpoint=onRefresh \
+    -Dcrac.arguments-file=$DIR/crac.args \
+    -jar $DIR/ldap2zammad.jar crac-restore
+
+  cat > $DIR/run.sh <<'RUN'
+#!/bin/bash
+# the restored process runs the command of fast-start/crac.args
+if [ $# -eq 0 ]; then
+  set -- sync
+fi
+printf '%s\n' "$@" > fast-start/crac.args
+exec java -XX:CRaCRestoreFrom=fast-start/crac
+RUN
+else
+  cat > $DIR/run.sh <<'RUN'
+#!/bin/bash
+exec java $JAVA_OPTS -Dspring.aot.enabled=true -XX:SharedArchiveFile=fast-start/ldap2zammad.jsa \
+  -jar fast-start/ldap2zammad.jar "$@"
+RUN
+fi
+
+chmod 755 $DIR/run.sh
@@ -24,4 +24,5 @@ echo JAVA_HOME=$JAVA_HOME
 $JAVA_HOME/bin/gu install js llvm-toolchain
 sleep 3
 
+# builds target/ldap2zammad-sync, runs like 'ldap2zammad.jar sync'
 ./mvnw -Pnative clean native:compile -DskipTests=true
@@ -0,0 +1,46 @@
+#!/bin/bash
+
+#
+# Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+#
+# Smoke run of the native sync binary against an in-memory ldap stand-in
+# (src/test/java/l9g/app/ldap2zammad/LdapStandIn.java) with the entries of
+# data/smoke-test.ldif. The stand-in uses the base dn, port and bind dn of
+# data/application.yaml, which needs ldap.host.name=localhost. Needs
+# target/ldap2zammad-sync (./NATIVE_COMPILE.sh). Zammad is only read
+# (roles and users), the dry run does not write.
+#
+
+./mvnw -q test-compile dependency:build-classpath \
+  -Dmdep.outputFile=target/test.classpath || exit 1
+
+java -cp target/test-classes:target/classes:$(cat target/test.classpath) \
+  l9g.app.ldap2zammad.LdapStandIn data/smoke-test.ldif &
+STANDIN=$!
+sleep 10
+
+/usr/bin/time -v target/ldap2zammad-sync \
+  -Dlogging.level.l9g.app.ldap2zammad.handler.LdapHandler=DEBUG \
+  --full-sync --dry-run 2>&1 \
+  | grep -E "first ldap connection|loaded [0-9]+ ldap entries|Summary|Maximum resident|Elapsed"
+RESULT=${PIPESTATUS[0]}
+
+# stop the stand-in
+kill $STANDIN
+wait
+
+exit $RESULT
@@ -0,0 +1,56 @@
+#!/bin/bash
+
+#
+# Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+#
+# Time to first ldap query of 'sync --dry-run', plain jar vs. fast start
+# build (run ./START.sh and ./FAST_START.sh first)
+#
+#   RUNS=10 ./STARTUP_BENCHMARK.sh
+#
+# Every run prints the 'first ldap connection {n}ms' log line, the time
+# since the jvm start. The line is logged at debug level, the benchmark
+# enables it for the LdapHandler. Compare the medians on the target host,
+# the first run after a build warms the page cache and is usually slower.
+#
+# With CRAC=1 the restore of the CRaC checkpoint (./FAST_START.sh crac)
+# is measured as well. The restored process keeps the log levels of the
+# checkpoint, so create it with
+#
+#   JAVA_OPTS=-Dlogging.level.l9g.app.ldap2zammad.handler.LdapHandler=DEBUG \
+#     ./FAST_START.sh crac
+#
+
+RUNS=${RUNS:-5}
+DEBUG=-Dlogging.level.l9g.app.ldap2zammad.handler.LdapHandler=DEBUG
+
+measure()
+{
+  echo "$1"
+  shift
+  for i in $(seq $RUNS); do
+    "$@" 2>&1 | grep -o "first ldap connection [0-9]*ms"
+  done
+}
+
+measure "plain jar" java $DEBUG -jar ldap2zammad.jar sync --dry-run
+JAVA_OPTS=$DEBUG measure "fast start (AOT + AppCDS)" \
+  fast-start/run.sh sync --dry-run
+
+if [ "$CRAC" = "1" ] && [ -d fast-start/crac ]; then
+  measure "fast start (CRaC restore)" fast-start/run.sh sync --dry-run
+fi
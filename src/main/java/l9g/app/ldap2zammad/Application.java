@@ -21,11 +21,13 @@ import org.jline.utils.AttributedStyle;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import org.springframework.shell.command.annotation.CommandScan;
 import org.springframework.shell.jline.PromptProvider;
 
 @SpringBootApplication
 @CommandScan
+@ImportRuntimeHints(NativeRuntimeHints.class)
 public class Application
 {
   public final static String CONFIG_PATH = "data" + File.separator;
@@ -45,6 +47,13 @@ public class Application
 
   public static void main(String[] args)
   {
-    SpringApplication.run(Application.class, args);
+    if (BatchApplication.isBatchCommand(args))
+    {
+      BatchApplication.run(args);
+    }
+    else
+    {
+      SpringApplication.run(Application.class, args);
+    }
   }
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import l9g.app.ldap2zammad.handler.DaemonHandler;
+import l9g.app.ldap2zammad.handler.SyncHandler;
+import l9g.app.ldap2zammad.handler.TenantHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.ImportRuntimeHints;
+
+/**
+ * Non-interactive launcher for 'sync', 'apply', 'sync-user', 'daemon' and
+ * 'tenants' runs, e.g. from cron or a service manager.
+ *
+ * No auto configuration and no Spring Shell, JLine or command beans.
+ * All beans are created lazily, so only the components needed by the
+ * SyncHandler are initialized. The JVM exits when the sync is done.
+ *
+ * 'crac-restore' is the command of the CRaC checkpoint (FAST_START.sh),
+ * it only starts the context. The restored process reads the command to
+ * run from the file of the crac.arguments-file system property.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@Configuration
+@ImportRuntimeHints(NativeRuntimeHints.class)
+@ComponentScan(excludeFilters = @ComponentScan.Filter(
+  type = FilterType.ASSIGNABLE_TYPE, classes = Application.class))
+public class BatchApplication
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(BatchApplication.class);
+
+  public final static String COMMAND = "sync";
+
+  public final static String COMMAND_APPLY = "apply";
+
+  public final static String COMMAND_SYNC_USER = "sync-user";
+
+  public final static String COMMAND_DAEMON = "daemon";
+
+  public final static String COMMAND_TENANTS = "tenants";
+
+  public final static String COMMAND_CRAC_RESTORE = "crac-restore";
+
+  private final static String CRAC_ARGUMENTS_FILE = "crac.arguments-file";
+
+  private final static List<String> COMMANDS = List.of(
+    COMMAND, COMMAND_APPLY, COMMAND_SYNC_USER, COMMAND_DAEMON,
+    COMMAND_TENANTS, COMMAND_CRAC_RESTORE);
+
+  /**
+   * the options of every command, named like the shell command options
+   */
+  private final static Map<String, List<String>> COMMAND_OPTIONS = Map.of(
+    COMMAND, List.of("full-sync", "dry-run", "debug", "trace", "resume",
+      "plan", "max-duration", "force-deletes"),
+    COMMAND_APPLY, List.of("file", "dry-run"),
+    COMMAND_SYNC_USER, List.of("login", "dry-run"),
+    COMMAND_DAEMON, List.of(),
+    COMMAND_TENANTS, List.of("full-sync", "dry-run"),
+    COMMAND_CRAC_RESTORE, List.of());
+
+  /**
+   * options followed by a value, --login is followed by one or more values,
+   * the other options take an optional true/false
+   */
+  private final static List<String> VALUE_OPTIONS = List.of(
+    "file", "plan", "max-duration");
+
+  private final static String LOGIN_OPTION = "login";
+
+  public static boolean isBatchCommand(String[] args)
+  {
+    return args.length > 0 && COMMANDS.contains(args[0]);
+  }
+
+  private static boolean hasOption(List<String> options, String name)
+  {
+    int index = options.indexOf("--" + name);
+    return index >= 0 && (index + 1 >= options.size()
+      || !"false".equalsIgnoreCase(options.get(index + 1)));
+  }
+
+  private static String optionValue(List<String> options, String name)
+  {
+    int index = options.indexOf("--" + name);
+    return (index >= 0 && index + 1 < options.size())
+      ? options.get(index + 1) : null;
+  }
+
+  /**
+   * @return the values of all --login options, e.g. '--login a b --login c'
+   */
+  private static List<String> loginValues(List<String> options)
+  {
+    List<String> logins = new ArrayList<>();
+    boolean login = false;
+
+    for (String option : options)
+    {
+      if (option.startsWith("--"))
+      {
+        login = option.equals("--" + LOGIN_OPTION);
+      }
+      else if (login)
+      {
+        logins.add(option);
+      }
+    }
+
+    return logins;
+  }
+
+  /**
+   * Rejects unknown options and arguments which are no option values, like
+   * the shell command.
+   */
+  static void checkOptions(String command, List<String> options)
+  {
+    List<String> names = COMMAND_OPTIONS.get(command);
+    String previous = null;
+
+    for (String option : options)
+    {
+      if (option.startsWith("--"))
+      {
+        if (!names.contains(option.substring(2)))
+        {
+          throw new IllegalArgumentException("unknown option '" + option
+            + "' for " + command + ", options are " + names);
+        }
+
+        previous = option.substring(2);
+      }
+      else if (previous != null && (VALUE_OPTIONS.contains(previous)
+        || "true".equalsIgnoreCase(option)
+        || "false".equalsIgnoreCase(option)))
+      {
+        // the value of the option
+        previous = null;
+      }
+      else if (!LOGIN_OPTION.equals(previous))
+      {
+        throw new IllegalArgumentException("unexpected argument '" + option
+          + "' for " + command + ", options are " + names);
+      }
+    }
+
+    if (COMMAND_SYNC_USER.equals(command) && loginValues(options).isEmpty())
+    {
+      throw new IllegalArgumentException(command
+        + " needs --login {login} [{login}...]");
+    }
+  }
+
+  /**
+   * Reads the arguments of a restored CRaC checkpoint, one per line, the
+   * first one is the command.
+   */
+  static String[] restoreArguments(Path file)
+    throws IOException
+  {
+    String[] args = Files.readAllLines(file).stream()
+      .filter(line -> !line.isBlank()).toArray(String[]::new);
+
+    if (args.length == 0 || !isBatchCommand(args)
+      || COMMAND_CRAC_RESTORE.equals(args[0]))
+    {
+      throw new IllegalArgumentException("no command to restore in "
+        + file + ", commands are " + COMMANDS);
+    }
+
+    checkOptions(args[0], Arrays.asList(args).subList(1, args.length));
+    return args;
+  }
+
+  /**
+   * Entry point for the Spring AOT processing of the fast-start profile.
+   */
+  public static void main(String[] args)
+  {
+    String[] syncArgs = new String[args.length + 1];
+    syncArgs[0] = COMMAND;
+    System.arraycopy(args, 0, syncArgs, 1, args.length);
+    run(syncArgs);
+  }
+
+  public static void run(String[] args)
+  {
+    // initializes Application, which sets the config location
+    LOGGER.debug("config path = {}", Application.CONFIG_PATH);
+
+    List<String> options = Arrays.asList(args).subList(1, args.length);
+    int exitCode = 0;
+
+    try
+    {
+      checkOptions(args[0], options);
+    }
+    catch (IllegalArgumentException e)
+    {
+      LOGGER.error(e.getMessage());
+      System.exit(2);
+    }
+
+    SpringApplication application
+      = new SpringApplication(BatchApplication.class);
+    application.setWebApplicationType(WebApplicationType.NONE);
+    application.setLazyInitialization(true);
+    application.setBannerMode(Banner.Mode.OFF);
+
+    ConfigurableApplicationContext context = application.run();
+
+    if (COMMAND_CRAC_RESTORE.equals(args[0]))
+    {
+      // the checkpoint is taken while the context refreshes,
+      // the restored process continues here
+      try
+      {
+        args = restoreArguments(Path.of(
+          System.getProperty(CRAC_ARGUMENTS_FILE, "fast-start/crac.args")));
+        options = Arrays.asList(args).subList(1, args.length);
+        LOGGER.info("restored checkpoint, running {}", Arrays.asList(args));
+      }
+      catch (IOException | IllegalArgumentException e)
+      {
+        LOGGER.error("crac restore failed: {}", e.getMessage());
+        context.close();
+        System.exit(2);
+      }
+    }
+
+    try (context)
+    {
+      SyncHandler syncHandler
+        = context.getBean("syncHandler", SyncHandler.class);
+
+      if (COMMAND_APPLY.equals(args[0]))
+      {
+        syncHandler.apply(optionValue(options, "file"),
+          hasOption(options, "dry-run"));
+      }
+      else if (COMMAND_SYNC_USER.equals(args[0]))
+      {
+        syncHandler.syncUsers(loginValues(options),
+          hasOption(options, "dry-run"));
+      }
+      else if (COMMAND_DAEMON.equals(args[0]))
+      {
+        context.getBean("daemonHandler", DaemonHandler.class).run();
+      }
+      else if (COMMAND_TENANTS.equals(args[0]))
+      {
+        if (context.getBean("tenantHandler", TenantHandler.class).run(
+          hasOption(options, "full-sync"), hasOption(options, "dry-run")) > 0)
+        {
+          exitCode = 1;
+        }
+      }
+      else
+      {
+        syncHandler.sync(
+          hasOption(options, "full-sync"),
+          hasOption(options, "dry-run"),
+          hasOption(options, "debug"),
+          hasOption(options, "trace"),
+          hasOption(options, "resume"),
+          optionValue(options, "plan"),
+          optionValue(options, "max-duration"),
+          hasOption(options, "force-deletes"));
+      }
+    }
+    catch (Throwable t)
+    {
+      LOGGER.error("{} failed", args[0], t);
+      exitCode = 1;
+    }
+
+    System.exit(exitCode);
+  }
+}
@@ -15,6 +15,7 @@
  */
 package l9g.app.ldap2zammad;
 
+import jakarta.annotation.PostConstruct;
 import java.util.List;
 import lombok.Getter;
 import lombok.Setter;
@@ -49,6 +50,41 @@ public class Config
   @Value("${zammad.trust-all-certificates}")
   private boolean zammadTrustAllCertificates;
 
+  /**
+   * zammad caps per_page silently, see getZammadUsersPerPage
+   */
+  public final static int ZAMMAD_MAX_PER_PAGE = 500;
+
+  @Value("${zammad.users-per-page:100}")
+  private int zammadUsersPerPage;
+
+  @Value("${zammad.codec.max-in-memory-size:1048576}")
+  private int zammadCodecMaxInMemorySize;
+
+  @Value("${zammad.http.max-connections:16}")
+  private int zammadHttpMaxConnections;
+
+  @Value("${zammad.http.pending-acquire-max-count:256}")
+  private int zammadHttpPendingAcquireMaxCount;
+
+  @Value("${zammad.http.pending-acquire-timeout-seconds:60}")
+  private int zammadHttpPendingAcquireTimeoutSeconds;
+
+  @Value("${zammad.http.max-idle-seconds:30}")
+  private int zammadHttpMaxIdleSeconds;
+
+  @Value("${zammad.http.connect-timeout-seconds:10}")
+  private int zammadHttpConnectTimeoutSeconds;
+
+  @Value("${zammad.http.response-timeout-seconds:120}")
+  private int zammadHttpResponseTimeoutSeconds;
+
+  @Value("${zammad.http.compression:true}")
+  private boolean zammadHttpCompression;
+
+  @Value("${zammad.http.http2:false}")
+  private boolean zammadHttpHttp2;
+
   @Value("${ldap.host.name}")
   private String ldapHostname;
 
@@ -76,9 +112,15 @@ public class Config
   @Value("${ldap.user.id}")
   private String ldapUserId;
 
+  @Value("${ldap.user.uuid:}")
+  private String ldapUserUuid;
+
   @Value("${ldap.user.attributes}")
   private String[] ldapUserAttributeNames;
 
+  @Value("${ldap.server-side-sort:false}")
+  private boolean ldapServerSideSort;
+
   @Value("${mail.enabled}")
   private boolean mailEnabled;
 
@@ -120,6 +162,144 @@ public class Config
   
   @Value("${sync.remove-tagged-roles-befor-update-user}")
   private boolean syncRemoveTaggedRolesBeforUpdateUser;
+
+  @Value("${sync.timestamp-overlap-seconds:300}")
+  private int syncTimestampOverlapSeconds;
+
+  @Value("${sync.lookup-batch-size:20}")
+  private int syncLookupBatchSize;
+
+  @Value("${sync.catch-up.threshold-hours:24}")
+  private int syncCatchUpThresholdHours;
+
+  @Value("${sync.catch-up.slice-hours:6}")
+  private int syncCatchUpSliceHours;
+
+  @Value("${sync.catch-up.parallel:4}")
+  private int syncCatchUpParallel;
+
+  @Value("${sync.rolling-reconcile.shards:0}")
+  private int syncRollingReconcileShards;
+
+  @Value("${sync.source-marker:ldap2zammad}")
+  private String syncSourceMarker;
+
+  @Value("${sync.managed-users-only:false}")
+  private boolean syncManagedUsersOnly;
+
+  @Value("${sync.merge-join:false}")
+  private boolean syncMergeJoinEnabled;
+
+  @Value("${sync.bulk-import.enabled:false}")
+  private boolean syncBulkImportEnabled;
+
+  @Value("${sync.bulk-import.threshold:500}")
+  private int syncBulkImportThreshold;
+
+  @Value("${sync.bulk-import.chunk-size:1000}")
+  private int syncBulkImportChunkSize;
+
+  @Value("${sync.bulk-delete.enabled:false}")
+  private boolean syncBulkDeleteEnabled;
+
+  @Value("${sync.bulk-delete.concurrency:8}")
+  private int syncBulkDeleteConcurrency;
+
+  @Value("${sync.mass-delete-guard.max-percent:25}")
+  private int syncMassDeleteGuardMaxPercent;
+
+  @Value("${sync.mass-delete-guard.min-deletes:10}")
+  private int syncMassDeleteGuardMinDeletes;
+
+  @Value("${sync.organizations.enabled:false}")
+  private boolean syncOrganizationsEnabled;
+
+  @Value("${sync.organizations.attributes:}")
+  private String[] syncOrganizationsAttributes;
+
+  @Value("${sync.organizations.from-dn:false}")
+  private boolean syncOrganizationsFromDn;
+
+  @Value("${sync.organizations.create-missing:true}")
+  private boolean syncOrganizationsCreateMissing;
+
+  @Value("${sync.group-mapping.enabled:false}")
+  private boolean syncGroupMappingEnabled;
+
+  @Value("${sync.group-mapping.file:group-mapping.yaml}")
+  private String syncGroupMappingFile;
+
+  @Value("${sync.group-mapping.base-dn:}")
+  private String syncGroupMappingBaseDn;
+
+  @Value("${sync.group-mapping.filter:(|(objectClass=groupOfNames)(objectClass=groupOfUniqueNames))}")
+  private String syncGroupMappingFilter;
+
+  @Value("${sync.group-mapping.member-attributes:member,uniqueMember}")
+  private String[] syncGroupMappingMemberAttributes;
+
+  @Value("${sync.group-mapping.member-of:false}")
+  private boolean syncGroupMappingMemberOf;
+
+  @Value("${sync.avatar.enabled:false}")
+  private boolean syncAvatarEnabled;
+
+  @Value("${sync.avatar.attribute:jpegPhoto}")
+  private String syncAvatarAttribute;
+
+  @Value("${sync.avatar.size:256}")
+  private int syncAvatarSize;
+
+  @Value("${sync.avatar.page-size:50}")
+  private int syncAvatarPageSize;
+
+  @Value("${sync.avatar.uploads-per-second:10}")
+  private int syncAvatarUploadsPerSecond;
+
+  @Value("${sync.apply-concurrency:8}")
+  private int syncApplyConcurrency;
+
+  @Value("${sync.skip-unchanged-users:false}")
+  private boolean syncSkipUnchangedUsers;
+
+  @Value("${sync.user-cache.enabled:false}")
+  private boolean syncUserCacheEnabled;
+
+  @Value("${sync.user-cache.full-refresh-hours:24}")
+  private int syncUserCacheFullRefreshHours;
+
+  @Value("${startup.warmup:false}")
+  private boolean startupWarmup;
+
+  @Value("${daemon.host:127.0.0.1}")
+  private String daemonHost;
+
+  @Value("${daemon.port:8080}")
+  private int daemonPort;
+
+  @Value("${daemon.token:}")
+  private String daemonToken;
+
+  @Value("${daemon.group-cache-minutes:10}")
+  private int daemonGroupCacheMinutes;
+
+  @Value("${daemon.max-logins-per-request:100}")
+  private int daemonMaxLoginsPerRequest;
+
+  @Value("${tenants.max-parallel:2}")
+  private int tenantsMaxParallel;
+
+  @Value("${tenants.max-connections:0}")
+  private int tenantsMaxConnections;
+
+  /**
+   * name of the sync profile, set by the TenantHandler, empty otherwise
+   */
+  @Value("${tenant.name:}")
+  private String tenantName;
+
+  @Value("${tenant.config-path:}")
+  private String tenantConfigPath;
   
   @Setter
   private boolean dryRun;
@@ -127,6 +307,71 @@ public class Config
   @Setter
   private boolean debug;
 
+  /**
+   * errors throw an exception instead of exiting the jvm, set by the
+   * DaemonHandler and while a plan is applied
+   */
+  @Setter
+  private boolean errorExitDisabled;
+
+  /**
+   * sync --force-deletes, the mass delete guard does not abort the sync
+   */
+  @Setter
+  private boolean forceDeletes;
+
+  /**
+   * dry-run or plan run, nothing is written to the var directory
+   */
+  @Setter
+  private boolean keepState;
+
+  /**
+   * @return the directory of the mapping script and the var directory,
+   * the tenant directory of a sync profile or data/
+   */
+  public String getConfigPath()
+  {
+    return tenantConfigPath.isBlank() ? Application.CONFIG_PATH
+      : tenantConfigPath;
+  }
+
+  /**
+   * @return zammad.users-per-page, at most the page size zammad returns
+   * (ZAMMAD_MAX_PER_PAGE)
+   */
+  public int getZammadUsersPerPage()
+  {
+    if (zammadUsersPerPage > ZAMMAD_MAX_PER_PAGE)
+    {
+      LOGGER.warn("zammad.users-per-page {} exceeds the zammad maximum, using {}",
+        zammadUsersPerPage, ZAMMAD_MAX_PER_PAGE);
+      zammadUsersPerPage = ZAMMAD_MAX_PER_PAGE;
+    }
+
+    return Math.max(1, zammadUsersPerPage);
+  }
+
+  public boolean isTenant()
+  {
+    return !tenantName.isBlank();
+  }
+
+  /**
+   * managed-users-only without a source marker would load no zammad user
+   * and delete nothing, or with a blank marker every user
+   */
+  @PostConstruct
+  void validate()
+  {
+    if (syncManagedUsersOnly
+      && (syncSourceMarker == null || syncSourceMarker.isBlank()))
+    {
+      throw new IllegalStateException(
+        "sync.managed-users-only needs a sync.source-marker");
+    }
+  }
+
   @Bean
   public Config configBean()
   {
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * LDAP group to zammad role and group mapping, read from
+ * data/group-mapping.yaml (sync.group-mapping.file).
+ *
+ * <pre>
+ * rules:
+ *   - group: cn=helpdesk,ou=groups,dc=example,dc=de
+ *     roles: [ "_Agent" ]
+ *     groups:
+ *       Users: [ full ]
+ * </pre>
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@ToString
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GroupMapping
+{
+  public static GroupMapping load(File file) throws IOException
+  {
+    return new ObjectMapper(new YAMLFactory()).readValue(file,
+      GroupMapping.class);
+  }
+
+  /**
+   * Members of the ldap group (dn) get the zammad roles (names) and the
+   * access to the zammad groups (name to access list).
+   */
+  @ToString
+  @Getter
+  @Setter
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class Rule
+  {
+    private String group;
+
+    private List<String> roles;
+
+    private Map<String, List<String>> groups;
+  }
+
+  private List<Rule> rules = new ArrayList<>();
+}
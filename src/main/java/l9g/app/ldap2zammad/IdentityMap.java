@@ -0,0 +1,226 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps the immutable ldap uuid (ldap.user.uuid, e.g. entryUUID) of synced
+ * entries to their zammad user id.
+ *
+ * A zammad user whose login is gone from ldap, but whose uuid is still
+ * read by the current sync, was renamed. It is kept as rename candidate
+ * and updated with the new login instead of anonymized and created
+ * again. Renames are found in the ldap entries of the current sync, a
+ * modrdn changes the modifyTimestamp so they are part of every delta.
+ * If the delete phase was done by an interrupted or yielded run, the
+ * mapped zammad ids are looked up instead (see addRenamedUser), the
+ * login of the mapping (see getLogin) must still match.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class IdentityMap
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(IdentityMap.class);
+
+  private static final String MAP_FILENAME = "identity.map";
+
+  public IdentityMap(File varDirectory, String prefix) throws IOException
+  {
+    mapFile = new File(varDirectory, prefix + "-" + MAP_FILENAME);
+
+    if (mapFile.exists() && mapFile.canRead())
+    {
+      try (BufferedReader reader = new BufferedReader(
+        new FileReader(mapFile)))
+      {
+        String line;
+
+        while ((line = reader.readLine()) != null)
+        {
+          String[] record = line.split("\t");
+
+          if (record.length >= 2)
+          {
+            // records without a login are written by older versions
+            put(record[0], Integer.valueOf(record[1]),
+              (record.length > 2) ? record[2] : null);
+          }
+        }
+      }
+    }
+
+    LOGGER.debug("loaded {} identities", uuidToId.size());
+  }
+
+  /**
+   * @param login zammad login of the user
+   */
+  public void put(String uuid, Integer zammadId, String login)
+  {
+    if (uuid != null && zammadId != null)
+    {
+      Integer oldId = uuidToId.put(uuid, zammadId);
+
+      if (login != null)
+      {
+        uuidToLogin.put(uuid, login);
+      }
+      else
+      {
+        uuidToLogin.remove(uuid);
+      }
+
+      if (oldId != null && !oldId.equals(zammadId))
+      {
+        idToUuid.remove(oldId);
+      }
+
+      idToUuid.put(zammadId, uuid);
+    }
+  }
+
+  public void remove(Integer zammadId)
+  {
+    String uuid = idToUuid.remove(zammadId);
+
+    if (uuid != null)
+    {
+      uuidToId.remove(uuid);
+      uuidToLogin.remove(uuid);
+    }
+  }
+
+  /**
+   * @param ldapUuids uuids of the ldap entries read by the current sync
+   */
+  public void setLdapUuids(Set<String> ldapUuids)
+  {
+    this.ldapUuids = ldapUuids;
+  }
+
+  /**
+   * Keeps the zammad user as rename candidate if its uuid was read from
+   * ldap by the current sync.
+   *
+   * @return true if the user was renamed
+   */
+  public boolean detectRename(ZammadUser user)
+  {
+    String uuid = idToUuid.get(user.getId());
+
+    if (uuid != null && ldapUuids.contains(uuid))
+    {
+      LOGGER.debug("rename candidate: {} ({})", user.getLogin(), uuid);
+      renamedUsers.put(uuid, user);
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * @return the zammad user id of the ldap uuid or null
+   */
+  public Integer getZammadId(String uuid)
+  {
+    return (uuid != null) ? uuidToId.get(uuid) : null;
+  }
+
+  /**
+   * @return the zammad login of the ldap uuid or null if unknown
+   */
+  public String getLogin(String uuid)
+  {
+    return (uuid != null) ? uuidToLogin.get(uuid) : null;
+  }
+
+  public boolean isRenamed(String uuid)
+  {
+    return renamedUsers.containsKey(uuid);
+  }
+
+  /**
+   * Keeps a mapped zammad user, which was looked up by its id, as rename
+   * candidate.
+   */
+  public void addRenamedUser(String uuid, ZammadUser user)
+  {
+    LOGGER.debug("rename candidate by id: {} ({})", user.getLogin(), uuid);
+    renamedUsers.put(uuid, user);
+  }
+
+  /**
+   * @return the renamed zammad user of the ldap uuid or null
+   */
+  public ZammadUser removeRenamedUser(String uuid)
+  {
+    return (uuid != null) ? renamedUsers.remove(uuid) : null;
+  }
+
+  public int size()
+  {
+    return uuidToId.size();
+  }
+
+  public void write() throws IOException
+  {
+    LOGGER.debug("writing {} identities", uuidToId.size());
+
+    try (PrintWriter out = new PrintWriter(mapFile))
+    {
+      uuidToId.forEach((uuid, zammadId) ->
+      {
+        out.print(uuid);
+        out.print('\t');
+        out.print(zammadId);
+        String login = uuidToLogin.get(uuid);
+
+        if (login != null)
+        {
+          out.print('\t');
+          out.print(login);
+        }
+
+        out.println();
+      });
+    }
+  }
+
+  private final File mapFile;
+
+  private final Map<String, Integer> uuidToId = new HashMap<>();
+
+  private final Map<Integer, String> idToUuid = new HashMap<>();
+
+  private final Map<String, String> uuidToLogin = new HashMap<>();
+
+  private final Map<String, ZammadUser> renamedUsers = new HashMap<>();
+
+  private Set<String> ldapUuids = Collections.emptySet();
+}
@@ -62,7 +62,8 @@ public class LogbackConfig
 
     notificationMarker = MarkerFactory.getMarker(SMTP_NOTIFICATION);
 
-    if (config.isMailEnabled())
+    // the sync profiles share the appenders of the root logger
+    if (config.isMailEnabled() && rootLogger.getAppender("SMTP") == null)
     {
       PatternLayoutEncoder layoutEncoder = new PatternLayoutEncoder();
       layoutEncoder.setContext(loggerContext);
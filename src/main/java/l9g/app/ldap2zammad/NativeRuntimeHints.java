@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import java.util.ArrayList;
+import l9g.app.ldap2zammad.handler.TenantHandler;
+import l9g.app.ldap2zammad.model.ZammadAnonymousUser;
+import l9g.app.ldap2zammad.model.ZammadGroup;
+import l9g.app.ldap2zammad.model.ZammadOrganization;
+import l9g.app.ldap2zammad.model.ZammadPreferences;
+import l9g.app.ldap2zammad.model.ZammadRole;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import l9g.app.ldap2zammad.model.ZammadUserProjection;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * Reachability metadata for the native image.
+ *
+ * The model classes are (de)serialized by Jackson or bound from the
+ * configuration (sync profiles), the host classes are called from the
+ * javascript mapping (HostAccess.ALL). AWT and ImageIO are not registered,
+ * the native binary rejects sync.avatar.enabled (see AvatarHandler).
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class NativeRuntimeHints implements RuntimeHintsRegistrar
+{
+  private final static Class<?>[] MODEL_CLASSES =
+  {
+    GroupMapping.class, GroupMapping.Rule.class,
+    ZammadAnonymousUser.class, ZammadGroup.class, ZammadOrganization.class,
+    ZammadPreferences.class, ZammadRole.class, ZammadUser.class,
+    ZammadUserProjection.class, TenantHandler.Profile.class
+  };
+
+  private final static Class<?>[] SCRIPT_HOST_CLASSES =
+  {
+    ZammadUser.class, Entry.class, Attribute.class, Config.class,
+    ArrayList.class
+  };
+
+  @Override
+  public void registerHints(RuntimeHints hints, ClassLoader classLoader)
+  {
+    for (Class<?> type : MODEL_CLASSES)
+    {
+      hints.reflection().registerType(type,
+        MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+        MemberCategory.INVOKE_DECLARED_METHODS,
+        MemberCategory.DECLARED_FIELDS);
+    }
+
+    for (Class<?> type : SCRIPT_HOST_CLASSES)
+    {
+      hints.reflection().registerType(type,
+        MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+        MemberCategory.INVOKE_PUBLIC_METHODS,
+        MemberCategory.PUBLIC_FIELDS);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rolling reconciliation, the logins are hash-partitioned into a number
+ * of shards and every delta sync fully reconciles one shard. So every
+ * user is verified within 'shards' syncs without a full sync. The shard
+ * of the next sync is kept in the var directory.
+ *
+ * The shard is taken from the ldap uids of the last sync, its users are
+ * read from ldap again and updated. Zammad users without an ldap entry
+ * are not part of a shard, they are only deleted if the delete phase
+ * reads all zammad users (merge join or no targeted lookup).
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ReconcileShards
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(ReconcileShards.class);
+
+  private static final String SHARD_FILENAME = "reconcile.shard";
+
+  public ReconcileShards(File varDirectory, String prefix, int shards)
+    throws IOException
+  {
+    this.shards = shards;
+    shardFile = new File(varDirectory, prefix + "-" + SHARD_FILENAME);
+
+    int value = 0;
+
+    if (shardFile.exists() && shardFile.canRead())
+    {
+      try (BufferedReader reader = new BufferedReader(
+        new FileReader(shardFile)))
+      {
+        String line = reader.readLine();
+
+        if (line != null && line.trim().length() > 0)
+        {
+          value = Integer.parseInt(line.trim());
+        }
+      }
+      catch (NumberFormatException e)
+      {
+        LOGGER.warn("invalid reconcile shard, starting with shard 0");
+      }
+    }
+
+    // the number of shards may have changed
+    shard = Math.floorMod(value, shards);
+    LOGGER.debug("reconcile shard {}/{}", shard, shards);
+  }
+
+  /**
+   * @param login normalized login
+   * @return true if the login belongs to the shard of this sync
+   */
+  public boolean contains(String login)
+  {
+    // String.hashCode is specified, the partition is stable across runs
+    return Math.floorMod(login.hashCode(), shards) == shard;
+  }
+
+  /**
+   * Moves on to the next shard, called after a completed sync.
+   */
+  public void writeNextShard() throws IOException
+  {
+    try (PrintWriter out = new PrintWriter(shardFile))
+    {
+      out.println((shard + 1) % shards);
+    }
+  }
+
+  private final File shardFile;
+
+  @Getter
+  private final int shards;
+
+  @Getter
+  private final int shard;
+}
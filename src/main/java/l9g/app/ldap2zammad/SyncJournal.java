@@ -0,0 +1,373 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import com.unboundid.asn1.ASN1GeneralizedTime;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only progress journal of a running sync.
+ *
+ * Every finished login and phase is recorded in the var directory. Records
+ * are written in batches and forced to disk with fsync, so an interrupted
+ * run can be resumed with 'sync --resume'. The journal file is removed when
+ * a sync run finishes successfully. A run stopped by its time budget
+ * (--max-duration) is marked as yielded and continued by the next sync.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class SyncJournal implements Closeable
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(SyncJournal.class);
+
+  public final static String PHASE_DELETE = "DELETE";
+
+  public final static String PHASE_UPDATE = "UPDATE";
+
+  private static final String JOURNAL_FILENAME = "sync.journal";
+
+  private static final String RECORD_RUN = "RUN";
+
+  private static final String RECORD_PHASE = "PHASE";
+
+  private static final String RECORD_LOGIN = "DONE";
+
+  private static final String RECORD_SLICE = "SLICE";
+
+  private static final String RECORD_YIELD = "YIELD";
+
+  private static final char SEPARATOR = '\t';
+
+  private static final int SYNC_BATCH_SIZE = 100;
+
+  public SyncJournal(File varDirectory, String prefix, boolean writable)
+  {
+    this.writable = writable;
+    journalFile = new File(varDirectory, prefix + "-" + JOURNAL_FILENAME);
+    LOGGER.debug("journalFile={}", journalFile.getAbsolutePath());
+  }
+
+  /**
+   * Reads the journal of an interrupted sync run.
+   *
+   * @return true if an unfinished sync run was found
+   */
+  public boolean load() throws IOException
+  {
+    reset();
+
+    if (!journalFile.exists())
+    {
+      return false;
+    }
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+      new FileInputStream(journalFile), StandardCharsets.UTF_8)))
+    {
+      String line;
+
+      while ((line = reader.readLine()) != null)
+      {
+        // a torn last line of a crashed run is silently ignored
+        String[] record = line.split(String.valueOf(SEPARATOR), 3);
+
+        try
+        {
+          if (RECORD_RUN.equals(record[0]) && record.length == 3)
+          {
+            runTimestamp = new ASN1GeneralizedTime(record[1]);
+            fullSync = Boolean.parseBoolean(record[2]);
+          }
+          else if (RECORD_PHASE.equals(record[0]) && record.length == 2)
+          {
+            completedPhases.add(record[1]);
+          }
+          else if (RECORD_LOGIN.equals(record[0]) && record.length == 3)
+          {
+            completedLogins.computeIfAbsent(record[1], k -> new HashSet<>())
+              .add(record[2]);
+          }
+          else if (RECORD_SLICE.equals(record[0]) && record.length == 2)
+          {
+            sliceCheckpoint = new ASN1GeneralizedTime(record[1]);
+          }
+          else if (RECORD_YIELD.equals(record[0]))
+          {
+            yielded = true;
+          }
+        }
+        catch (Exception e)
+        {
+          LOGGER.debug("ignoring invalid journal record '{}'", line);
+        }
+      }
+    }
+
+    if (runTimestamp == null)
+    {
+      LOGGER.warn("journal file {} contains no sync run",
+        journalFile.getAbsolutePath());
+      reset();
+      return false;
+    }
+
+    LOGGER.info("found interrupted sync run from {}, completed phases={}",
+      runTimestamp.getStringRepresentation(), completedPhases);
+
+    return true;
+  }
+
+  /**
+   * Forgets a loaded journal, the next call of begin starts a new run.
+   */
+  public void reset()
+  {
+    completedPhases.clear();
+    completedLogins.clear();
+    sliceCheckpoint = null;
+    yielded = false;
+    runTimestamp = null;
+    fullSync = false;
+  }
+
+  /**
+   * Starts journaling. A previously loaded journal is rewritten in compact
+   * form first, otherwise a new run record is written.
+   */
+  public void begin(ASN1GeneralizedTime timestamp, boolean fullSync)
+    throws IOException
+  {
+    if (runTimestamp == null)
+    {
+      runTimestamp = timestamp;
+      this.fullSync = fullSync;
+    }
+
+    if (!writable)
+    {
+      return;
+    }
+
+    File tmpFile = new File(journalFile.getParentFile(),
+      journalFile.getName() + ".tmp");
+
+    try (FileOutputStream tmpOutput = new FileOutputStream(tmpFile);
+      BufferedWriter tmpWriter = new BufferedWriter(new OutputStreamWriter(
+        tmpOutput, StandardCharsets.UTF_8)))
+    {
+      writeRecord(tmpWriter, RECORD_RUN, runTimestamp.toString(),
+        Boolean.toString(this.fullSync));
+
+      for (String phase : completedPhases)
+      {
+        writeRecord(tmpWriter, RECORD_PHASE, phase, null);
+      }
+
+      if (sliceCheckpoint != null)
+      {
+        writeRecord(tmpWriter, RECORD_SLICE, sliceCheckpoint.toString(), null);
+      }
+
+      // a continued run stays yielded until it finishes
+      if (yielded)
+      {
+        writeRecord(tmpWriter, RECORD_YIELD, runTimestamp.toString(), null);
+      }
+
+      for (Map.Entry<String, Set<String>> entry : completedLogins.entrySet())
+      {
+        for (String login : entry.getValue())
+        {
+          writeRecord(tmpWriter, RECORD_LOGIN, entry.getKey(), login);
+        }
+      }
+
+      tmpWriter.flush();
+      tmpOutput.getFD().sync();
+    }
+
+    Files.move(tmpFile.toPath(), journalFile.toPath(),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    output = new FileOutputStream(journalFile, true);
+    writer = new BufferedWriter(
+      new OutputStreamWriter(output, StandardCharsets.UTF_8));
+  }
+
+  public boolean isPhaseCompleted(String phase)
+  {
+    return completedPhases.contains(phase);
+  }
+
+  public boolean isLoginCompleted(String phase, String login)
+  {
+    Set<String> logins = completedLogins.get(phase);
+    return logins != null && logins.contains(login);
+  }
+
+  public void loginCompleted(String phase, String login) throws IOException
+  {
+    if (writer != null)
+    {
+      writeRecord(writer, RECORD_LOGIN, phase, login);
+      pendingRecords++;
+
+      if (pendingRecords >= SYNC_BATCH_SIZE)
+      {
+        sync();
+      }
+    }
+  }
+
+  public void phaseCompleted(String phase) throws IOException
+  {
+    completedPhases.add(phase);
+
+    if (writer != null)
+    {
+      writeRecord(writer, RECORD_PHASE, phase, null);
+      sync();
+    }
+  }
+
+  /**
+   * Records a completed catch-up slice, all entries modified before the
+   * end of the slice are synced.
+   */
+  public void sliceCompleted(ASN1GeneralizedTime end) throws IOException
+  {
+    sliceCheckpoint = end;
+
+    if (writer != null)
+    {
+      writeRecord(writer, RECORD_SLICE, end.toString(), null);
+      sync();
+    }
+  }
+
+  /**
+   * Marks the run as stopped by its time budget, the next sync continues
+   * it without --resume.
+   */
+  public void yielded() throws IOException
+  {
+    if (writer != null)
+    {
+      writeRecord(writer, RECORD_YIELD, runTimestamp.toString(), null);
+      sync();
+    }
+  }
+
+  /**
+   * Closes and removes the journal after a successful sync run.
+   */
+  public void finish() throws IOException
+  {
+    close();
+
+    if (writable && journalFile.exists())
+    {
+      LOGGER.debug("removing journal file {}", journalFile.getAbsolutePath());
+      Files.delete(journalFile.toPath());
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (writer != null)
+    {
+      sync();
+      writer.close();
+      writer = null;
+      output = null;
+    }
+  }
+
+  private void sync() throws IOException
+  {
+    writer.flush();
+    output.getFD().sync();
+    pendingRecords = 0;
+  }
+
+  private void writeRecord(BufferedWriter out, String type, String value1,
+    String value2) throws IOException
+  {
+    out.write(type);
+    out.write(SEPARATOR);
+    out.write(value1);
+
+    if (value2 != null)
+    {
+      out.write(SEPARATOR);
+      out.write(value2);
+    }
+
+    out.newLine();
+  }
+
+  private final File journalFile;
+
+  private final boolean writable;
+
+  private final Set<String> completedPhases = new HashSet<>();
+
+  private final Map<String, Set<String>> completedLogins = new HashMap<>();
+
+  @Getter
+  private ASN1GeneralizedTime runTimestamp;
+
+  /**
+   * end of the last completed catch-up slice or null
+   */
+  @Getter
+  private ASN1GeneralizedTime sliceCheckpoint;
+
+  @Getter
+  private boolean fullSync;
+
+  /**
+   * true if the loaded run was stopped by its time budget
+   */
+  @Getter
+  private boolean yielded;
+
+  private FileOutputStream output;
+
+  private BufferedWriter writer;
+
+  private int pendingRecords;
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JSONL file of planned zammad write operations, written by
+ * 'sync --plan' and executed by 'apply'.
+ *
+ * One operation per line:
+ * <pre>
+ * {"op":"create","login":"...","user":{...}}
+ * {"op":"update","id":42,"login":"...","user":{...}}
+ * {"op":"anonymize","id":42,"login":"..."}
+ * {"op":"create-organization","name":"..."}
+ * </pre>
+ * The user payloads contain only the non empty attributes set by the
+ * mapping script. Organizations are planned before the users, users of
+ * a planned organization refer to it by name.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class SyncPlan implements Closeable
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(SyncPlan.class);
+
+  public final static String OP_CREATE = "create";
+
+  public final static String OP_UPDATE = "update";
+
+  public final static String OP_ANONYMIZE = "anonymize";
+
+  public final static String OP_CREATE_ORGANIZATION = "create-organization";
+
+  /**
+   * One planned operation.
+   */
+  @Getter
+  public static class Operation
+  {
+    Operation(String op, Integer id, String login, ZammadUser user,
+      String name)
+    {
+      this.op = op;
+      this.id = id;
+      this.login = login;
+      this.user = user;
+      this.name = name;
+    }
+
+    private final String op;
+
+    private final Integer id;
+
+    private final String login;
+
+    private final ZammadUser user;
+
+    /**
+     * organization name of create-organization
+     */
+    private final String name;
+  }
+
+  public interface OperationCallback
+  {
+    void operation(Operation operation) throws Throwable;
+  }
+
+  public SyncPlan(File file, ObjectMapper objectMapper) throws IOException
+  {
+    LOGGER.info("writing plan to {}", file.getAbsolutePath());
+    this.objectMapper = objectMapper;
+    writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+  }
+
+  public void create(ZammadUser user) throws IOException
+  {
+    write(OP_CREATE, null, user.getLogin(), user);
+  }
+
+  public void update(ZammadUser user) throws IOException
+  {
+    write(OP_UPDATE, user.getId(), user.getLogin(), user);
+  }
+
+  public void anonymize(ZammadUser user) throws IOException
+  {
+    write(OP_ANONYMIZE, user.getId(), user.getLogin(), null);
+  }
+
+  public void createOrganization(String name) throws IOException
+  {
+    ObjectNode node = objectMapper.createObjectNode();
+    node.put("op", OP_CREATE_ORGANIZATION);
+    node.put("name", name);
+    writeNode(node);
+  }
+
+  private void write(String op, Integer id, String login, ZammadUser user)
+    throws IOException
+  {
+    ObjectNode node = objectMapper.createObjectNode();
+    node.put("op", op);
+
+    if (id != null)
+    {
+      node.put("id", id);
+    }
+
+    node.put("login", login);
+
+    if (user != null)
+    {
+      node.set("user", objectMapper.valueToTree(user));
+    }
+
+    writeNode(node);
+  }
+
+  private void writeNode(ObjectNode node) throws IOException
+  {
+    writer.write(objectMapper.writeValueAsString(node));
+    writer.newLine();
+    size++;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    writer.close();
+    LOGGER.info("{} operation(s) planned", size);
+  }
+
+  /**
+   * Reads all operations of a plan file line by line.
+   *
+   * @return number of operations
+   */
+  public static int read(File file, ObjectMapper objectMapper,
+    OperationCallback callback) throws Throwable
+  {
+    int counter = 0;
+
+    try (BufferedReader reader = Files.newBufferedReader(
+      file.toPath(), StandardCharsets.UTF_8))
+    {
+      String line;
+
+      while ((line = reader.readLine()) != null)
+      {
+        if (line.isBlank())
+        {
+          continue;
+        }
+
+        JsonNode node = objectMapper.readTree(line);
+        Integer id = node.hasNonNull("id") ? node.get("id").asInt() : null;
+        String login = node.hasNonNull("login")
+          ? node.get("login").asText() : null;
+        ZammadUser user = node.hasNonNull("user")
+          ? objectMapper.treeToValue(node.get("user"), ZammadUser.class)
+          : new ZammadUser();
+        user.setId(id);
+        user.setLogin(login);
+
+        callback.operation(new Operation(node.get("op").asText(), id, login,
+          user, node.hasNonNull("name") ? node.get("name").asText() : null));
+        counter++;
+      }
+    }
+
+    return counter;
+  }
+
+  private final ObjectMapper objectMapper;
+
+  private final BufferedWriter writer;
+
+  @Getter
+  private int size;
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Set;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses between a full download of all zammad users and targeted
+ * lookups of single logins.
+ *
+ * A full download costs one request per page of zammad users, a targeted
+ * lookup one search request per batch of logins. The zammad user count of
+ * the last full download and the ldap uids of the last sync are kept in
+ * the var directory. With the zammad user cache enabled all users are
+ * always read from the cache.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class SyncPlanner
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(SyncPlanner.class);
+
+  private static final String COUNT_FILENAME = "zammad.count";
+
+  private static final String UIDS_FILENAME = "ldap.uids";
+
+  public SyncPlanner(File varDirectory, String prefix, int usersPerPage,
+    int lookupBatchSize, boolean userCacheEnabled)
+  {
+    this.usersPerPage = usersPerPage;
+    this.userCacheEnabled = userCacheEnabled;
+    this.lookupBatchSize = lookupBatchSize;
+    countFile = new File(varDirectory, prefix + "-" + COUNT_FILENAME);
+    uidsFile = new File(varDirectory, prefix + "-" + UIDS_FILENAME);
+
+    int count = -1;
+
+    try
+    {
+      count = readZammadUserCount();
+    }
+    catch (IOException | NumberFormatException e)
+    {
+      LOGGER.warn("Reading zammad user count failed: {}", e.getMessage());
+    }
+
+    zammadUserCount = count;
+  }
+
+  private int readZammadUserCount() throws IOException
+  {
+    int count = -1;
+
+    if (countFile.exists() && countFile.canRead())
+    {
+      try (BufferedReader reader = new BufferedReader(
+        new FileReader(countFile)))
+      {
+        String line = reader.readLine();
+
+        if (line != null && line.trim().length() > 0)
+        {
+          count = Integer.parseInt(line.trim());
+        }
+      }
+    }
+
+    LOGGER.debug("last zammad user count = {}", count);
+    return count;
+  }
+
+  /**
+   * @return true if looking up the given number of logins is cheaper than
+   * downloading all zammad users
+   */
+  public boolean useTargetedLookup(int numberOfLogins)
+  {
+    boolean targeted = false;
+
+    if (userCacheEnabled)
+    {
+      LOGGER.info("plan: using zammad user cache");
+    }
+    else if (zammadUserCount >= 0)
+    {
+      int fullRequests = (zammadUserCount + usersPerPage - 1) / usersPerPage;
+      int lookupRequests
+        = (numberOfLogins + lookupBatchSize - 1) / lookupBatchSize;
+      targeted = lookupRequests < fullRequests;
+
+      LOGGER.info("plan: {} lookup request(s) vs. {} page request(s) for "
+        + "{} zammad users, using {}", lookupRequests, fullRequests,
+        zammadUserCount, targeted ? "targeted lookup" : "full download");
+    }
+    else
+    {
+      LOGGER.info("plan: zammad user count unknown, using full download");
+    }
+
+    return targeted;
+  }
+
+  public void writeZammadUserCount(int count) throws IOException
+  {
+    LOGGER.debug("writing zammad user count {}", count);
+
+    try (PrintWriter out = new PrintWriter(countFile))
+    {
+      out.println(count);
+    }
+
+    zammadUserCount = count;
+  }
+
+  /**
+   * @return the ldap uids of the last sync or null if unknown
+   */
+  public Set<String> readLastLdapUids() throws IOException
+  {
+    Set<String> uids = null;
+
+    if (uidsFile.exists() && uidsFile.canRead())
+    {
+      uids = new HashSet<>();
+
+      try (BufferedReader reader = new BufferedReader(
+        new FileReader(uidsFile)))
+      {
+        String line;
+
+        while ((line = reader.readLine()) != null)
+        {
+          if (line.length() > 0)
+          {
+            uids.add(line);
+          }
+        }
+      }
+
+      LOGGER.debug("loaded {} ldap uids of last sync", uids.size());
+    }
+
+    return uids;
+  }
+
+  public void writeLdapUids(Iterable<String> uids) throws IOException
+  {
+    LOGGER.debug("writing ldap uids");
+
+    try (PrintWriter out = new PrintWriter(uidsFile))
+    {
+      uids.forEach(out::println);
+    }
+  }
+
+  private final int usersPerPage;
+
+  private final int lookupBatchSize;
+
+  private final boolean userCacheEnabled;
+
+  private final File countFile;
+
+  private final File uidsFile;
+
+  @Getter
+  private int zammadUserCount;
+}
@@ -21,11 +21,21 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Keeps the start of the next delta sync.
+ *
+ * The stored timestamp is the highest modifyTimestamp of all ldap entries
+ * processed by the last sync (high-water mark), so clock skew between the
+ * sync host and the ldap servers does not matter. The next delta starts
+ * an overlap window before that mark. Entries inside the window which are
+ * unchanged since the last sync are detected by their fingerprint.
  *
  * @author Thorsten Ludewig (t.ludewig@gmail.com)
  */
@@ -36,50 +46,83 @@ public class TimestampUtil
 
   private static final String TIMESTAMP_FILENAME = "lastsync.timestamp";
 
-  private static final String VAR_DIRECTORY_NAME 
-    = Application.CONFIG_PATH + "var";
+  private static final String FINGERPRINTS_FILENAME = "overlap.fingerprints";
+
+  private static final String VAR_DIRECTORY_NAME = "var";
 
   public TimestampUtil(String prefix)
   {
-    currentTimestamp = new ASN1GeneralizedTime();
-    this.prefix = prefix;
-    
-    if (System.getProperty("app.home") != null)
-    {
-      varDirectory = new File(System.getProperty("app.home")
-        + File.separator + VAR_DIRECTORY_NAME);
-    }
-    else
-    {
-      varDirectory = new File(VAR_DIRECTORY_NAME);
-    }
+    this(prefix, 0);
+  }
 
-    LOGGER.debug("varDirectory={}", varDirectory.getAbsolutePath());
+  public TimestampUtil(String prefix, int overlapSeconds)
+  {
+    this(Application.CONFIG_PATH, prefix, overlapSeconds);
+  }
 
-    if (!varDirectory.exists())
-    {
-      varDirectory.mkdirs();
-    }
+  /**
+   * @param configPath parent of the var directory, e.g. the directory of
+   * a sync profile
+   */
+  public TimestampUtil(String configPath, String prefix, int overlapSeconds)
+  {
+    currentTimestamp = new ASN1GeneralizedTime();
+    this.prefix = prefix;
+    this.overlapMillis = overlapSeconds * 1000l;
+    varDirectory = varDirectory(configPath);
 
     timestampFile = new File(varDirectory, prefix + "-" + TIMESTAMP_FILENAME);
 
     LOGGER.debug("timestampFile={}", timestampFile.getAbsolutePath());
 
+    fingerprintsFile = new File(varDirectory,
+      prefix + "-" + FINGERPRINTS_FILENAME);
+
     ASN1GeneralizedTime timestamp = null;
 
     try
     {
       timestamp = readLastSyncTimestamp();
+      readOverlapFingerprints();
     }
     catch (Throwable t)
     {
-      LOGGER.error("ERROR: Reading last timesync file", t);
-      System.exit(-1);
+      // a sync profile must not stop the jvm of the other profiles
+      throw new IllegalStateException("reading last timesync file "
+        + timestampFile.getAbsolutePath() + " failed", t);
     }
 
     lastSyncTimestamp = timestamp;
   }
 
+  /**
+   * @return the var directory of the config path, it is created if it does
+   * not exist
+   */
+  public static File varDirectory(String configPath)
+  {
+    File varDirectory;
+
+    if (System.getProperty("app.home") != null)
+    {
+      varDirectory = new File(System.getProperty("app.home")
+        + File.separator + configPath + VAR_DIRECTORY_NAME);
+    }
+    else
+    {
+      varDirectory = new File(configPath + VAR_DIRECTORY_NAME);
+    }
+
+    LOGGER.debug("varDirectory={}", varDirectory.getAbsolutePath());
+
+    if (!varDirectory.exists())
+    {
+      varDirectory.mkdirs();
+    }
+
+    return varDirectory;
+  }
+
   private final ASN1GeneralizedTime readLastSyncTimestamp() throws Throwable
   {
     ASN1GeneralizedTime timestamp = new ASN1GeneralizedTime(0l);
@@ -104,23 +147,161 @@ public class TimestampUtil
     return timestamp;
   }
 
+  private void readOverlapFingerprints() throws IOException
+  {
+    if (fingerprintsFile.exists() && fingerprintsFile.canRead())
+    {
+      try (BufferedReader reader = new BufferedReader(new FileReader(
+        fingerprintsFile)))
+      {
+        String line;
+
+        while ((line = reader.readLine()) != null)
+        {
+          String[] record = line.split("\t");
+
+          if (record.length == 3)
+          {
+            lastFingerprints.put(record[0], record[2]);
+          }
+        }
+      }
+    }
+
+    LOGGER.debug("loaded {} overlap fingerprints", lastFingerprints.size());
+  }
+
+  /**
+   * @return the last sync timestamp minus the overlap window
+   */
+  public ASN1GeneralizedTime getDeltaStartTimestamp()
+  {
+    long time = lastSyncTimestamp.getTime();
+
+    if (time > 0)
+    {
+      time = Math.max(0, time - overlapMillis);
+    }
+
+    return new ASN1GeneralizedTime(time);
+  }
+
+  /**
+   * @return true if the entry was already synced with the same fingerprint
+   */
+  public boolean isUnchangedInOverlap(String login, String fingerprint)
+  {
+    return fingerprint != null
+      && fingerprint.equals(lastFingerprints.get(login));
+  }
+
+  /**
+   * Records a processed ldap entry for the next high-water mark.
+   *
+   * @param modifyTimestamp the entries modifyTimestamp, null if not readable
+   */
+  public void entryProcessed(String login, Date modifyTimestamp,
+    String fingerprint)
+  {
+    if (modifyTimestamp == null)
+    {
+      missingModifyTimestamp = true;
+    }
+    else
+    {
+      long time = modifyTimestamp.getTime();
+      highWaterMark = Math.max(highWaterMark, time);
+
+      if (fingerprint != null)
+      {
+        processedEntries.put(login, new String[]
+        {
+          Long.toString(time), fingerprint
+        });
+      }
+    }
+  }
+
+  /**
+   * Writes the high-water mark and the fingerprints of all processed entries
+   * inside the new overlap window.
+   *
+   * @param fallbackTimestamp used if ldap entries without a readable
+   * modifyTimestamp were processed
+   */
+  public void writeHighWaterMark(ASN1GeneralizedTime fallbackTimestamp)
+    throws IOException
+  {
+    long time = Math.max(lastSyncTimestamp.getTime(), highWaterMark);
+
+    if (missingModifyTimestamp)
+    {
+      LOGGER.warn("modifyTimestamp missing in ldap entries, "
+        + "using the sync start time as high-water mark");
+      time = Math.max(lastSyncTimestamp.getTime(),
+        fallbackTimestamp.getTime());
+    }
+
+    writeTimestamp(new ASN1GeneralizedTime(time));
+
+    long windowStart = time - overlapMillis;
+    int counter = 0;
+
+    try (PrintWriter out = new PrintWriter(fingerprintsFile))
+    {
+      for (Map.Entry<String, String[]> entry : processedEntries.entrySet())
+      {
+        if (Long.parseLong(entry.getValue()[0]) >= windowStart)
+        {
+          out.print(entry.getKey());
+          out.print('\t');
+          out.print(entry.getValue()[0]);
+          out.print('\t');
+          out.println(entry.getValue()[1]);
+          counter++;
+        }
+      }
+    }
+
+    LOGGER.debug("wrote {} overlap fingerprints", counter);
+  }
+
   public void writeCurrentTimestamp() throws IOException
+  {
+    writeTimestamp(currentTimestamp);
+  }
+
+  public void writeTimestamp(ASN1GeneralizedTime timestamp) throws IOException
   {
     LOGGER.info("Writing timestamp to {}", timestampFile.getAbsolutePath());
     try (PrintWriter out = new PrintWriter(timestampFile))
     {
-      out.println(currentTimestamp.toString());
+      out.println(timestamp.toString());
     }
   }
 
+  @Getter
   private final ASN1GeneralizedTime currentTimestamp;
 
   @Getter
   private final ASN1GeneralizedTime lastSyncTimestamp;
 
+  @Getter
   private final File varDirectory;
 
   private final File timestampFile;
 
+  private final File fingerprintsFile;
+
   private final String prefix;
+
+  private final long overlapMillis;
+
+  private final Map<String, String> lastFingerprints = new HashMap<>();
+
+  private final Map<String, String[]> processedEntries = new HashMap<>();
+
+  private long highWaterMark;
+
+  private boolean missingModifyTimestamp;
 }
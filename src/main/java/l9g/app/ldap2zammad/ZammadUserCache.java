@@ -0,0 +1,217 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import l9g.app.ldap2zammad.model.ZammadUserProjection;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk snapshot of all zammad users in the var directory.
+ *
+ * The snapshot is a JSONL file, the first line holds the time of the last
+ * full refresh and the highest updated_at of all cached users. Between two
+ * full refreshes only users with a newer updated_at are fetched from zammad.
+ * Users deleted in zammad disappear from the cache with the next full
+ * refresh. Only the projection attributes used by the sync are cached,
+ * they are written with the shared zammad ObjectMapper.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ZammadUserCache
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(ZammadUserCache.class);
+
+  private static final String CACHE_FILENAME = "cache.jsonl";
+
+  private static final String HEADER_FULL_REFRESH = "full_refresh_at";
+
+  private static final String HEADER_UPDATED_AT = "updated_at";
+
+  public ZammadUserCache(File varDirectory, String prefix,
+    int fullRefreshHours, ObjectMapper objectMapper)
+  {
+    cacheFile = new File(varDirectory, prefix + "-" + CACHE_FILENAME);
+    this.fullRefreshMillis = fullRefreshHours * 3600000l;
+    this.objectMapper = objectMapper;
+
+    LOGGER.debug("cacheFile={}", cacheFile.getAbsolutePath());
+  }
+
+  /**
+   * Loads the snapshot from disk.
+   *
+   * @return false if there is no usable snapshot or a full refresh is due
+   */
+  public boolean load()
+  {
+    users.clear();
+    fullRefreshAt = 0;
+    updatedAt = 0;
+
+    if (!cacheFile.exists())
+    {
+      LOGGER.info("no zammad user cache found");
+      return false;
+    }
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+      new FileInputStream(cacheFile), StandardCharsets.UTF_8)))
+    {
+      Map<?, ?> header = objectMapper.readValue(reader.readLine(), Map.class);
+      fullRefreshAt = ((Number) header.get(HEADER_FULL_REFRESH)).longValue();
+      updatedAt = ((Number) header.get(HEADER_UPDATED_AT)).longValue();
+
+      String line;
+
+      while ((line = reader.readLine()) != null)
+      {
+        ZammadUserProjection user
+          = objectMapper.readValue(line, ZammadUserProjection.class);
+        users.put(user.getId(), user);
+      }
+    }
+    catch (Exception e)
+    {
+      LOGGER.warn("reading zammad user cache failed: {}", e.getMessage());
+      users.clear();
+      return false;
+    }
+
+    LOGGER.info("loaded {} zammad users from cache", users.size());
+
+    if (System.currentTimeMillis() - fullRefreshAt > fullRefreshMillis)
+    {
+      LOGGER.info("full refresh of zammad user cache is due");
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Replaces all cached users after a full download.
+   */
+  public void replaceAll(Collection<ZammadUser> zammadUsers)
+  {
+    users.clear();
+    updatedAt = 0;
+    zammadUsers.forEach(this::put);
+    fullRefreshAt = System.currentTimeMillis();
+  }
+
+  public void put(ZammadUser user)
+  {
+    users.put(user.getId(), ZammadUserProjection.of(user));
+
+    if (user.getUpdated_at() != null)
+    {
+      updatedAt = Math.max(updatedAt, user.getUpdated_at().getTime());
+    }
+  }
+
+  public List<ZammadUser> getUsers()
+  {
+    return users.values().stream()
+      .map(ZammadUserProjection::toZammadUser).toList();
+  }
+
+  /**
+   * @return the highest updated_at of all cached users
+   */
+  public Date getUpdatedAt()
+  {
+    return new Date(updatedAt);
+  }
+
+  public void save() throws IOException
+  {
+    File tmpFile = new File(cacheFile.getParentFile(),
+      cacheFile.getName() + ".tmp");
+
+    try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(tmpFile), StandardCharsets.UTF_8)))
+    {
+      Map<String, Object> header = new LinkedHashMap<>();
+      header.put(HEADER_FULL_REFRESH, fullRefreshAt);
+      header.put(HEADER_UPDATED_AT, updatedAt);
+      writer.write(objectMapper.writeValueAsString(header));
+      writer.newLine();
+
+      for (ZammadUserProjection user : users.values())
+      {
+        writer.write(objectMapper.writeValueAsString(user));
+        writer.newLine();
+      }
+    }
+
+    Files.move(tmpFile.toPath(), cacheFile.toPath(),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    LOGGER.debug("saved {} zammad users to cache", users.size());
+  }
+
+  /**
+   * Releases the cached users in memory, the snapshot on disk is kept.
+   */
+  public void clear()
+  {
+    users.clear();
+  }
+
+  /**
+   * Removes the snapshot, the next run does a full refresh.
+   */
+  public void invalidate()
+  {
+    LOGGER.warn("invalidating zammad user cache");
+    users.clear();
+    cacheFile.delete();
+  }
+
+  private final File cacheFile;
+
+  private final long fullRefreshMillis;
+
+  private final ObjectMapper objectMapper;
+
+  private final Map<Integer, ZammadUserProjection> users = new LinkedHashMap<>();
+
+  @Getter
+  private long fullRefreshAt;
+
+  private long updatedAt;
+}
@@ -15,20 +15,14 @@
  */
 package l9g.app.ldap2zammad.commands;
 
-import ch.qos.logback.classic.Level;
-import com.unboundid.asn1.ASN1GeneralizedTime;
-import com.unboundid.ldap.sdk.Entry;
-import java.util.ArrayList;
-import l9g.app.ldap2zammad.Config;
-import l9g.app.ldap2zammad.LogbackConfig;
-import l9g.app.ldap2zammad.TimestampUtil;
-import l9g.app.ldap2zammad.engine.JavaScriptEngine;
-import l9g.app.ldap2zammad.handler.LdapHandler;
-import l9g.app.ldap2zammad.model.ZammadUser;
-import l9g.app.ldap2zammad.handler.ZammadHandler;
+import java.util.Arrays;
+import l9g.app.ldap2zammad.handler.DaemonHandler;
+import l9g.app.ldap2zammad.handler.SyncHandler;
+import l9g.app.ldap2zammad.handler.TenantHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.shell.command.CommandRegistration;
 import org.springframework.shell.command.annotation.Command;
 import org.springframework.shell.command.annotation.Option;
 
@@ -43,181 +37,66 @@ public class ApplicationCommands
     = LoggerFactory.getLogger(ApplicationCommands.class);
 
   @Autowired
-  private Config config;
+  private SyncHandler syncHandler;
 
   @Autowired
-  private LdapHandler ldapHandler;
+  private DaemonHandler daemonHandler;
 
   @Autowired
-  private ZammadHandler zammadHandler;
-
-  @Autowired
-  private LogbackConfig logbackConfig;
+  private TenantHandler tenantHandler;
 
   @Command(description = "sync users from LDAP to Zammad")
   public void sync(
     @Option(longNames = "full-sync", defaultValue = "false") boolean fullSync,
     @Option(longNames = "dry-run", defaultValue = "false") boolean dryRun,
     @Option(longNames = "debug", defaultValue = "false") boolean debug,
-    @Option(longNames = "trace", defaultValue = "false") boolean trace
+    @Option(longNames = "trace", defaultValue = "false") boolean trace,
+    @Option(longNames = "resume", defaultValue = "false") boolean resume,
+    @Option(longNames = "plan") String plan,
+    @Option(longNames = "max-duration") String maxDuration,
+    @Option(longNames = "force-deletes", defaultValue = "false") boolean forceDeletes
   ) throws Throwable
   {
-    logbackConfig.getRootLogger().setLevel(Level.INFO);
-    logbackConfig.getL9gLogger().setLevel(Level.INFO);
-
-    if (debug)
-    {
-      logbackConfig.getL9gLogger().setLevel(Level.DEBUG);
-    }
-
-    if (trace)
-    {
-      debug = true;
-      logbackConfig.getRootLogger().setLevel(Level.TRACE);
-      logbackConfig.getL9gLogger().setLevel(Level.TRACE);
-    }
-
-    LOGGER.info("dry-run = '{}', full-sync = '{}', debug = '{}', trace = '{}'", dryRun, fullSync, debug, trace);
-    LOGGER.info("zammad server: '{}'", config.getZammadBaseUrl());
-    LOGGER.info("ldap server: 'ldap{}://{}:{}'",
-      (config.isLdapSslEnabled())?"s":"",
-      config.getLdapHostname(),
-      config.getLdapPort());
-    
-    config.setDebug(debug);
-    config.setDryRun(dryRun);
-
-    int updateCounter = 0;
-    int createCounter = 0;
-    int deleteCounter = 0;
-    int ignoreCounter = 0;
-    
-    TimestampUtil timestampUtil = new TimestampUtil("zammad-users");
-
-    zammadHandler.readZammadRolesAndUsers();
-
-    ///////////////////////////////////////////////////////////////////////////
-    // DELETE
-    LOGGER.info( "looking for users to delete");
-    ldapHandler.readAllLdapEntryUIDs();
-    
-    for (ZammadUser user : zammadHandler.getZammadUsersList())
-    {
-      if (!ldapHandler.getLdapEntryMap().containsKey(user.getLogin()))
-      {
-        if (user.getId() == 1
-          || user.hasAnyRoles(config.getSyncProtectedRoleIds()))
-        {
-          // IGNORE protected Users
-          LOGGER.warn("IGNORE DELETE PROTECTED USER: {}", user.toStringShort());
-          ignoreCounter++;
-        }
-        else
-        {
-          // DELETE
-          zammadHandler.deleteUser(user);
-          deleteCounter++;
-        }
-      }
-    }
-
-    ///////////////////////////////////////////////////////////////////////////
-    ASN1GeneralizedTime timestamp;
-
-    if (fullSync)
-    {
-      timestamp = new ASN1GeneralizedTime(0l); // 01.01.1970, unix time 0
-    }
-    else
-    {
-      timestamp = timestampUtil.getLastSyncTimestamp();
-    }
-
-    LOGGER.info( "looking for users to update or create since last sync ({})", timestamp.getStringRepresentation());
-    ldapHandler.readLdapEntries(timestamp, true);
-
-    try (JavaScriptEngine js = new JavaScriptEngine())
-    {
-      int noEntries = ldapHandler.getLdapEntryMap().size();
-      int entryCounter = 0;
-
-      for (Entry entry : ldapHandler.getLdapEntryMap().values())
-      {
-        entryCounter++;
-        LOGGER.debug("{}/{}", entryCounter, noEntries);
-        String login = entry.getAttributeValue(config.getLdapUserId());
-        ZammadUser zammadUser = zammadHandler.getZammadUsersMap().get(login);
-        ArrayList<String> roles = new ArrayList<>();
-        ZammadUser updateUser = new ZammadUser();
-        updateUser.setLogin(login);
-        updateUser.setRoles(roles);
-
-        if (config.getSyncDefaultRoleId() != null)
-        {
-          String defaultRoleName = 
-            zammadHandler.getZammadRoleMap().get(config.getSyncDefaultRoleId()).getName();
-          
-          roles.add(defaultRoleName);
-        }
+    LOGGER.debug("sync");
+    syncHandler.sync(fullSync, dryRun, debug, trace, resume, plan,
+      maxDuration, forceDeletes);
+  }
 
-        if (zammadUser != null)
-        {
-          updateUser.setId(zammadUser.getId());
+  @Command(description = "execute a plan file written by sync --plan")
+  public void apply(
+    @Option(longNames = "file", required = true) String file,
+    @Option(longNames = "dry-run", defaultValue = "false") boolean dryRun
+  ) throws Throwable
+  {
+    LOGGER.debug("apply");
+    syncHandler.apply(file, dryRun);
+  }
 
-          if (zammadUser.hasAnyRoles(config.getSyncProtectedRoleIds()))
-          {
-            // IGNORE protected Users
-            LOGGER.warn("IGNORE UPDATE PROTECTED USER: {})", zammadUser.toStringShort());
-            ignoreCounter++;
-          }
-          else
-          {
-            // UPDATE
-            if (config.isSyncTagSyncerRolesEnabled()
-              && config.isSyncRemoveTaggedRolesBeforUpdateUser())
-            {
-              zammadUser.getRole_ids().forEach(roleId ->
-              {
-                String roleName
-                  = zammadHandler.getZammadRoleMap().get(roleId).getName();
-                
-                if (!roleId.equals(config.getSyncDefaultRoleId())
-                  && !roleName.startsWith(config.getSyncRolesTag()))
-                {
-                  roles.add(roleName);
-                }
-              });
-            }
+  @Command(command = "sync-user", description = "sync only the given users from LDAP to Zammad")
+  public void syncUser(
+    @Option(longNames = "login", required = true,
+      arity = CommandRegistration.OptionArity.ONE_OR_MORE) String[] logins,
+    @Option(longNames = "dry-run", defaultValue = "false") boolean dryRun
+  ) throws Throwable
+  {
+    LOGGER.debug("sync-user");
+    syncHandler.syncUsers(Arrays.asList(logins), dryRun);
+  }
 
-            js.getValue().executeVoid("update", updateUser, entry, config);
-            zammadHandler.updateUser(updateUser);
-            updateCounter++;
-          }
-        }
-        else
-        {
-          // CREATE
-          js.getValue().executeVoid("create", updateUser, entry, config);
-          zammadHandler.createUser(updateUser);
-          createCounter++;
-        }
-      }
-    }
-    
-    LOGGER.info("sync done\nSummary:"
-      + "\n  updated {} user(s)"
-      + "\n  created {} user(s)"
-      + "\n  deleted {} user(s)"
-      + "\n  ignored {} user(s)",
-      updateCounter, createCounter, deleteCounter, ignoreCounter);
-    
-    ///////////////////////////////////////////////////////////////////////////
-    if (!dryRun)
-    {
-      timestampUtil.writeCurrentTimestamp();
-    }
+  @Command(description = "run the http daemon for single user syncs")
+  public void daemon()
+  {
+    LOGGER.debug("daemon");
+    daemonHandler.run();
+  }
 
-    logbackConfig.getRootLogger().setLevel(Level.INFO);
-    logbackConfig.getL9gLogger().setLevel(Level.INFO);
+  @Command(description = "sync all profiles of tenants.profiles in parallel")
+  public void tenants(
+    @Option(longNames = "full-sync", defaultValue = "false") boolean fullSync,
+    @Option(longNames = "dry-run", defaultValue = "false") boolean dryRun
+  ) throws Throwable
+  {
+    LOGGER.debug("tenants");
+    tenantHandler.run(fullSync, dryRun);
   }
 }
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.engine;
+
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import l9g.app.ldap2zammad.GroupMapping;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the group mapping rules of ldap users.
+ *
+ * The ldap groups are read once per run (addGroup), nested groups are
+ * expanded in memory with a cache of the expanded members per group. The
+ * result is an index of user dn to matching rules, so a user lookup is a
+ * single map access. With memberOf the rules are matched against the
+ * memberOf values of the user entry instead.
+ *
+ * The rule signature of every member is kept in a snapshot file, members
+ * whose signature changed since the last sync are reported by
+ * getChangedMembers and synced even if their entry is unchanged. With
+ * memberOf the snapshot covers the synced entries, a change is reported
+ * by isChanged when the entry is read again (e.g. by the reconcile shard).
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class GroupMembershipResolver
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(GroupMembershipResolver.class);
+
+  public final static String MEMBER_OF = "memberOf";
+
+  public GroupMembershipResolver(GroupMapping mapping, boolean memberOf)
+  {
+    this.memberOf = memberOf;
+    rules = mapping.getRules();
+    ruleGroups = new String[rules.size()];
+    ruleSignatures = new int[rules.size()];
+
+    for (int i = 0; i < rules.size(); i++)
+    {
+      ruleGroups[i] = normalizeDn(rules.get(i).getGroup());
+      ruleSignatures[i] = rules.get(i).toString().hashCode();
+      groupRules.computeIfAbsent(ruleGroups[i], dn -> new BitSet()).set(i);
+    }
+  }
+
+  /**
+   * Adds the direct members of an ldap group.
+   */
+  public void addGroup(String dn, Collection<String> memberDns)
+  {
+    Set<String> members = new HashSet<>();
+    memberDns.forEach(memberDn -> members.add(normalizeDn(memberDn)));
+    groupMembers.put(normalizeDn(dn), members);
+  }
+
+  /**
+   * Expands the groups of all rules and builds the user index.
+   */
+  public void resolve()
+  {
+    userRules.clear();
+
+    for (int i = 0; i < ruleGroups.length; i++)
+    {
+      if (!groupMembers.containsKey(ruleGroups[i]))
+      {
+        LOGGER.warn("ldap group not found: {}", rules.get(i).getGroup());
+      }
+
+      for (String userDn : expand(ruleGroups[i], new HashSet<>(),
+        new HashSet<>()))
+      {
+        userRules.computeIfAbsent(userDn, dn -> new BitSet()).set(i);
+      }
+    }
+
+    LOGGER.info("resolved {} ldap group(s), {} member(s) with mapped groups",
+      groupMembers.size(), userRules.size());
+  }
+
+  /**
+   * @param visiting the groups currently expanded, breaks membership cycles
+   * @param cuts receives the groups of visiting which were skipped, the
+   * result lacks their members
+   */
+  private Set<String> expand(String groupDn, Set<String> visiting,
+    Set<String> cuts)
+  {
+    Set<String> result = expandedMembers.get(groupDn);
+
+    if (result == null)
+    {
+      result = new HashSet<>();
+      Set<String> members = groupMembers.get(groupDn);
+
+      if (members != null && !visiting.add(groupDn))
+      {
+        cuts.add(groupDn);
+      }
+      else if (members != null)
+      {
+        Set<String> innerCuts = new HashSet<>();
+
+        for (String member : members)
+        {
+          if (groupMembers.containsKey(member))
+          {
+            result.addAll(expand(member, visiting, innerCuts));
+          }
+          else
+          {
+            result.add(member);
+          }
+        }
+
+        visiting.remove(groupDn);
+        // a cycle back to this group is complete here
+        innerCuts.remove(groupDn);
+
+        if (innerCuts.isEmpty())
+        {
+          expandedMembers.put(groupDn, result);
+        }
+        else
+        {
+          // partial, expanded again from the outer group of the cycle
+          cuts.addAll(innerCuts);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the rules of the ldap user, empty if none match
+   */
+  public List<GroupMapping.Rule> rulesOf(Entry entry)
+  {
+    BitSet bits = ruleBits(entry);
+    List<GroupMapping.Rule> result = new ArrayList<>();
+
+    if (memberOf)
+    {
+      compareMemberOf(entry, bits);
+    }
+
+    if (bits != null)
+    {
+      bits.stream().forEach(i -> result.add(rules.get(i)));
+    }
+
+    return result;
+  }
+
+  private BitSet ruleBits(Entry entry)
+  {
+    BitSet bits = null;
+
+    if (memberOf)
+    {
+      String[] values = entry.getAttributeValues(MEMBER_OF);
+
+      if (values != null)
+      {
+        bits = new BitSet();
+
+        for (String value : values)
+        {
+          BitSet groupBits = groupRules.get(normalizeDn(value));
+
+          if (groupBits != null)
+          {
+            bits.or(groupBits);
+          }
+        }
+      }
+    }
+    else
+    {
+      bits = userRules.get(normalizeDn(entry.getDN()));
+    }
+
+    return bits;
+  }
+
+  /**
+   * With memberOf only the entries read by the sync are known, their rule
+   * signature is compared with the snapshot and updated in place, once per
+   * entry.
+   */
+  private void compareMemberOf(Entry entry, BitSet bits)
+  {
+    String userDn = normalizeDn(entry.getDN());
+
+    if (!comparedMembers.add(userDn))
+    {
+      return;
+    }
+
+    String lastSignature = (bits == null || bits.isEmpty())
+      ? memberSignatures.remove(userDn)
+      : memberSignatures.put(userDn, signature(bits));
+    String currentSignature = memberSignatures.get(userDn);
+
+    if ((lastSignature == null) ? currentSignature != null
+      : !lastSignature.equals(currentSignature))
+    {
+      changedMembers.add(userDn);
+    }
+  }
+
+  /**
+   * @return true if the rules of the user changed since the last sync
+   */
+  public boolean isChanged(Entry entry)
+  {
+    if (memberOf)
+    {
+      compareMemberOf(entry, ruleBits(entry));
+    }
+
+    return changedMembers.contains(normalizeDn(entry.getDN()));
+  }
+
+  /**
+   * Compares the current members with the snapshot of the last sync. All
+   * members are changed if no snapshot exists. With memberOf the snapshot
+   * is only loaded, the members are compared by rulesOf.
+   */
+  public void readSnapshot(File file) throws IOException
+  {
+    Map<String, String> lastSignatures = new HashMap<>();
+
+    if (file.exists() && file.canRead())
+    {
+      try (BufferedReader reader = new BufferedReader(new FileReader(file)))
+      {
+        String line;
+
+        while ((line = reader.readLine()) != null)
+        {
+          int tab = line.indexOf('\t');
+
+          if (tab > 0)
+          {
+            lastSignatures.put(line.substring(0, tab),
+              line.substring(tab + 1));
+          }
+        }
+      }
+    }
+
+    changedMembers.clear();
+
+    if (memberOf)
+    {
+      comparedMembers.clear();
+      memberSignatures.clear();
+      memberSignatures.putAll(lastSignatures);
+      return;
+    }
+
+    userRules.forEach((userDn, bits) ->
+    {
+      if (!signature(bits).equals(lastSignatures.remove(userDn)))
+      {
+        changedMembers.add(userDn);
+      }
+    });
+
+    // removed from all mapped groups
+    changedMembers.addAll(lastSignatures.keySet());
+
+    LOGGER.info("{} member(s) with changed group mapping",
+      changedMembers.size());
+  }
+
+  public void writeSnapshot(File file) throws IOException
+  {
+    try (PrintWriter out = new PrintWriter(file))
+    {
+      if (memberOf)
+      {
+        memberSignatures.forEach((userDn, signature) ->
+        {
+          out.print(userDn);
+          out.print('\t');
+          out.println(signature);
+        });
+      }
+      else
+      {
+        userRules.forEach((userDn, bits) ->
+        {
+          out.print(userDn);
+          out.print('\t');
+          out.println(signature(bits));
+        });
+      }
+    }
+  }
+
+  /**
+   * hash over the matching rules, a changed rule changes the signature of
+   * all its members
+   */
+  private String signature(BitSet bits)
+  {
+    int hash = 1;
+
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+    {
+      hash = 31 * hash + ruleSignatures[i];
+    }
+
+    return Integer.toHexString(hash);
+  }
+
+  public static String normalizeDn(String dn)
+  {
+    try
+    {
+      return DN.normalize(dn);
+    }
+    catch (LDAPException e)
+    {
+      return dn.trim().toLowerCase();
+    }
+  }
+
+  private final boolean memberOf;
+
+  private final List<GroupMapping.Rule> rules;
+
+  private final String[] ruleGroups;
+
+  private final int[] ruleSignatures;
+
+  private final Map<String, BitSet> groupRules = new HashMap<>();
+
+  private final Map<String, Set<String>> groupMembers = new HashMap<>();
+
+  private final Map<String, Set<String>> expandedMembers = new HashMap<>();
+
+  private final Map<String, BitSet> userRules = new HashMap<>();
+
+  /**
+   * memberOf snapshot, normalized user dn to rule signature
+   */
+  private final Map<String, String> memberSignatures = new HashMap<>();
+
+  private final Set<String> comparedMembers = new HashSet<>();
+
+  /**
+   * normalized user dns, see readSnapshot
+   */
+  @Getter
+  private final Set<String> changedMembers = new HashSet<>();
+}
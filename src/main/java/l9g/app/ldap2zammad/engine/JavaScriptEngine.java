@@ -38,12 +38,19 @@ public class JavaScriptEngine implements Closeable
 
   private final static String SCRIPT_TYPE = "js";
 
-  private final static String SCRIPT_FILENAME 
-    = Application.CONFIG_PATH + "ldap2zammad.js";
+  private final static String SCRIPT_FILENAME = "ldap2zammad.js";
 
   public JavaScriptEngine() throws IOException
   {
-    LOGGER.debug("JavaScriptEngine()");
+    this(Application.CONFIG_PATH);
+  }
+
+  /**
+   * @param configPath directory of the mapping script
+   */
+  public JavaScriptEngine(String configPath) throws IOException
+  {
+    LOGGER.debug("JavaScriptEngine({})", configPath);
 
     context = Context.newBuilder(SCRIPT_TYPE)
       .allowHostAccess(HostAccess.ALL)
@@ -52,7 +59,7 @@ public class JavaScriptEngine implements Closeable
       .build();
 
     value = context.eval(Source.newBuilder(
-      SCRIPT_TYPE, new File(SCRIPT_FILENAME)).build());
+      SCRIPT_TYPE, new File(configPath + SCRIPT_FILENAME)).build());
   }
 
   @Override
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.engine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merge join of sorted ldap logins and sorted zammad users.
+ *
+ * Both sides are read once in ascending login order, so memory use does not
+ * depend on the size of the directory. Zammad users are passed as compact
+ * tab separated records, see toRecord and fromRecord.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ReconciliationEngine
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(ReconciliationEngine.class);
+
+  private static final char SEPARATOR = '\t';
+
+  public interface Handler
+  {
+    /**
+     * login exists in ldap and zammad, update decision
+     */
+    void match(String login, ZammadUser zammadUser) throws Throwable;
+
+    /**
+     * login exists only in ldap, create decision
+     */
+    void ldapOnly(String login) throws Throwable;
+
+    /**
+     * login exists only in zammad, delete decision
+     */
+    void zammadOnly(ZammadUser zammadUser) throws Throwable;
+  }
+
+  public static void reconcile(Iterator<String> ldapLogins,
+    Iterator<String> zammadRecords, Handler handler) throws Throwable
+  {
+    LOGGER.debug("reconcile");
+
+    String login = next(ldapLogins);
+    String record = next(zammadRecords);
+    int matches = 0;
+    int ldapOnly = 0;
+    int zammadOnly = 0;
+
+    while (login != null || record != null)
+    {
+      int compare;
+
+      if (login == null)
+      {
+        compare = 1;
+      }
+      else if (record == null)
+      {
+        compare = -1;
+      }
+      else
+      {
+        compare = login.compareTo(recordLogin(record));
+      }
+
+      if (compare == 0)
+      {
+        handler.match(login, fromRecord(record));
+        matches++;
+        login = next(ldapLogins);
+        record = next(zammadRecords);
+      }
+      else if (compare < 0)
+      {
+        handler.ldapOnly(login);
+        ldapOnly++;
+        login = next(ldapLogins);
+      }
+      else
+      {
+        handler.zammadOnly(fromRecord(record));
+        zammadOnly++;
+        record = next(zammadRecords);
+      }
+    }
+
+    LOGGER.info("reconciled {} matching, {} ldap only, {} zammad only users",
+      matches, ldapOnly, zammadOnly);
+  }
+
+  /**
+   * @return login, id, role ids, source and email of the user as one line
+   */
+  public static String toRecord(ZammadUser user)
+  {
+    StringBuilder record = new StringBuilder();
+    record.append(user.getLogin().toLowerCase())
+      .append(SEPARATOR).append(user.getId())
+      .append(SEPARATOR);
+
+    if (user.getRole_ids() != null)
+    {
+      for (int i = 0; i < user.getRole_ids().size(); i++)
+      {
+        if (i > 0)
+        {
+          record.append(',');
+        }
+        record.append(user.getRole_ids().get(i));
+      }
+    }
+
+    record.append(SEPARATOR).append(clean(user.getSource()))
+      .append(SEPARATOR).append(clean(user.getEmail()));
+
+    return record.toString();
+  }
+
+  public static ZammadUser fromRecord(String record)
+  {
+    String[] fields = record.split(String.valueOf(SEPARATOR), -1);
+    ZammadUser user = new ZammadUser();
+    user.setLogin(fields[0]);
+    user.setId(Integer.valueOf(fields[1]));
+
+    List<Integer> roleIds = new ArrayList<>();
+
+    if (fields[2].length() > 0)
+    {
+      for (String roleId : fields[2].split(","))
+      {
+        roleIds.add(Integer.valueOf(roleId));
+      }
+    }
+
+    user.setRole_ids(roleIds);
+    user.setSource(fields[3].isEmpty() ? null : fields[3]);
+    user.setEmail(fields[4].isEmpty() ? null : fields[4]);
+    return user;
+  }
+
+  private static String recordLogin(String record)
+  {
+    return record.substring(0, record.indexOf(SEPARATOR));
+  }
+
+  private static String clean(String value)
+  {
+    return (value == null) ? "" : value.replace(SEPARATOR, ' ');
+  }
+
+  private static String next(Iterator<String> iterator)
+  {
+    return iterator.hasNext() ? iterator.next() : null;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.engine;
+
+import l9g.app.ldap2zammad.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads GraalJS and evaluates the mapping script once while the context
+ * starts, if startup.warmup is enabled. Used for AppCDS training runs and
+ * CRaC checkpoints (spring.context.checkpoint=onRefresh), so the script
+ * engine classes are part of the archive or the checkpoint image.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@Component
+@Lazy(false)
+public class ScriptEngineWarmup implements SmartInitializingSingleton
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(ScriptEngineWarmup.class);
+
+  @Autowired
+  private Config config;
+
+  @Override
+  public void afterSingletonsInstantiated()
+  {
+    if (config.isStartupWarmup())
+    {
+      long time = System.currentTimeMillis();
+
+      try (JavaScriptEngine js = new JavaScriptEngine(
+        config.getConfigPath()))
+      {
+        LOGGER.info("script engine warmup done in {}ms",
+          System.currentTimeMillis() - time);
+      }
+      catch (Throwable t)
+      {
+        LOGGER.warn("script engine warmup failed: {}", t.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * External sort of text lines with a fixed memory limit.
+ *
+ * Lines are collected in chunks of chunkSize lines. Every full chunk is
+ * sorted and written to a temporary file, the iterator merges all chunk
+ * files. Input which is already sorted (e.g. from a server side sort) only
+ * produces sorted runs, so merging them is a sequential read. The spool can
+ * be iterated several times until it is closed.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class SortedSpool implements Closeable, Iterable<String>
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(SortedSpool.class);
+
+  public final static int DEFAULT_CHUNK_SIZE = 50000;
+
+  public SortedSpool(String name)
+  {
+    this(name, DEFAULT_CHUNK_SIZE);
+  }
+
+  public SortedSpool(String name, int chunkSize)
+  {
+    this.name = name;
+    this.chunkSize = chunkSize;
+    chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+  }
+
+  public void add(String line) throws IOException
+  {
+    chunk.add(line);
+    chunkSorted = false;
+    size++;
+
+    if (chunk.size() >= chunkSize)
+    {
+      writeChunk();
+    }
+  }
+
+  private void writeChunk() throws IOException
+  {
+    Collections.sort(chunk);
+    File chunkFile = File.createTempFile(name + "-", ".spool");
+    chunkFile.deleteOnExit();
+
+    try (BufferedWriter writer = Files.newBufferedWriter(
+      chunkFile.toPath(), StandardCharsets.UTF_8))
+    {
+      for (String line : chunk)
+      {
+        writer.write(line);
+        writer.newLine();
+      }
+    }
+
+    LOGGER.debug("{}: wrote chunk of {} lines to {}", name, chunk.size(),
+      chunkFile.getAbsolutePath());
+
+    chunkFiles.add(chunkFile);
+    chunk.clear();
+  }
+
+  /**
+   * @return all lines in ascending order
+   */
+  @Override
+  public Iterator<String> iterator()
+  {
+    if (!chunkSorted)
+    {
+      Collections.sort(chunk);
+      chunkSorted = true;
+    }
+
+    if (chunkFiles.isEmpty())
+    {
+      return Collections.unmodifiableList(chunk).iterator();
+    }
+
+    try
+    {
+      return new MergeIterator();
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  @Override
+  public void close()
+  {
+    chunk.clear();
+
+    for (MergeIterator iterator : openIterators)
+    {
+      iterator.close();
+    }
+
+    openIterators.clear();
+
+    for (File chunkFile : chunkFiles)
+    {
+      chunkFile.delete();
+    }
+
+    chunkFiles.clear();
+  }
+
+  /**
+   * k-way merge of all chunk files and the in memory chunk
+   */
+  private class MergeIterator implements Iterator<String>
+  {
+    MergeIterator() throws IOException
+    {
+      openIterators.add(this);
+
+      for (File chunkFile : chunkFiles)
+      {
+        BufferedReader reader = Files.newBufferedReader(
+          chunkFile.toPath(), StandardCharsets.UTF_8);
+        readers.add(reader);
+        Iterator<String> lines = reader.lines().iterator();
+        if (lines.hasNext())
+        {
+          queue.add(new Head(lines.next(), lines));
+        }
+      }
+
+      Iterator<String> memory = chunk.iterator();
+      if (memory.hasNext())
+      {
+        queue.add(new Head(memory.next(), memory));
+      }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      boolean hasNext = !queue.isEmpty();
+
+      if (!hasNext)
+      {
+        close();
+      }
+
+      return hasNext;
+    }
+
+    @Override
+    public String next()
+    {
+      Head head = queue.poll();
+
+      if (head == null)
+      {
+        throw new NoSuchElementException();
+      }
+
+      String line = head.line;
+
+      if (head.lines.hasNext())
+      {
+        head.line = head.lines.next();
+        queue.add(head);
+      }
+
+      return line;
+    }
+
+    void close()
+    {
+      for (BufferedReader reader : readers)
+      {
+        try
+        {
+          reader.close();
+        }
+        catch (IOException e)
+        {
+          LOGGER.debug("closing chunk reader", e);
+        }
+      }
+
+      readers.clear();
+    }
+
+    private final List<BufferedReader> readers = new ArrayList<>();
+
+    private final PriorityQueue<Head> queue = new PriorityQueue<>(
+      (a, b) -> a.line.compareTo(b.line));
+  }
+
+  private static class Head
+  {
+    Head(String line, Iterator<String> lines)
+    {
+      this.line = line;
+      this.lines = lines;
+    }
+
+    private String line;
+
+    private final Iterator<String> lines;
+  }
+
+  private final String name;
+
+  private final int chunkSize;
+
+  private final List<String> chunk;
+
+  private final List<File> chunkFiles = new ArrayList<>();
+
+  private final List<MergeIterator> openIterators = new ArrayList<>();
+
+  private boolean chunkSorted;
+
+  private int size;
+}
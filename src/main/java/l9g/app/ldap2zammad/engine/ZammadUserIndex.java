@@ -0,0 +1,431 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import l9g.app.ldap2zammad.model.ZammadRole;
+import l9g.app.ldap2zammad.model.ZammadUser;
+
+/**
+ * Compact in-memory index of zammad users.
+ *
+ * Only the fields needed by the sync are kept in primitive arrays: id,
+ * lowercase login, source, role bitset and a fingerprint of the synced
+ * attributes. Logins are found through an open addressing hash table. Role
+ * ids are mapped to bit positions once, so a protected role check is a
+ * bitwise AND of the role words.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ZammadUserIndex
+{
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325l;
+
+  private static final long FNV_PRIME = 0x100000001b3l;
+
+  public ZammadUserIndex(Collection<ZammadRole> roles)
+  {
+    this(roles, false);
+  }
+
+  /**
+   * @param withOrganizations include the organization_id in the
+   * fingerprint (sync.organizations.enabled)
+   */
+  public ZammadUserIndex(Collection<ZammadRole> roles,
+    boolean withOrganizations)
+  {
+    this.withOrganizations = withOrganizations;
+    roleIds = new int[roles.size()];
+    roleNames = new String[roles.size()];
+    int bit = 0;
+
+    for (ZammadRole role : roles)
+    {
+      roleIds[bit] = role.getId();
+      roleNames[bit] = role.getName();
+      roleBitMap.put(role.getId(), bit);
+      bit++;
+    }
+
+    roleWords = Math.max(1, (roles.size() + 63) / 64);
+    allocate(INITIAL_CAPACITY);
+  }
+
+  private void allocate(int capacity)
+  {
+    ids = new int[capacity];
+    logins = new String[capacity];
+    sources = new String[capacity];
+    fingerprints = new long[capacity];
+    roleBits = new long[capacity * roleWords];
+    slots = new int[capacity * 2];
+    Arrays.fill(slots, -1);
+  }
+
+  private void grow()
+  {
+    int capacity = ids.length * 2;
+    ids = Arrays.copyOf(ids, capacity);
+    logins = Arrays.copyOf(logins, capacity);
+    sources = Arrays.copyOf(sources, capacity);
+    fingerprints = Arrays.copyOf(fingerprints, capacity);
+    roleBits = Arrays.copyOf(roleBits, capacity * roleWords);
+    slots = new int[capacity * 2];
+    Arrays.fill(slots, -1);
+
+    for (int i = 0; i < size; i++)
+    {
+      slots[freeSlot(logins[i])] = i;
+    }
+  }
+
+  public static String normalize(String login)
+  {
+    return login.trim().toLowerCase();
+  }
+
+  /**
+   * Adds or replaces a zammad user, users without login are ignored.
+   */
+  public void add(ZammadUser user)
+  {
+    if (user.getLogin() == null)
+    {
+      return;
+    }
+
+    String login = normalize(user.getLogin());
+    int index = find(login);
+
+    if (index < 0)
+    {
+      if (size == ids.length)
+      {
+        grow();
+      }
+
+      index = size++;
+      logins[index] = login;
+      slots[freeSlot(login)] = index;
+    }
+
+    ids[index] = user.getId();
+    sources[index] = (user.getSource() == null)
+      ? null : user.getSource().intern();
+    fingerprints[index] = fingerprint(user);
+    Arrays.fill(roleBits, index * roleWords, (index + 1) * roleWords, 0l);
+
+    if (user.getRole_ids() != null)
+    {
+      for (Integer roleId : user.getRole_ids())
+      {
+        Integer bit = roleBitMap.get(roleId);
+
+        if (bit != null)
+        {
+          roleBits[index * roleWords + (bit >> 6)] |= 1l << (bit & 63);
+        }
+      }
+    }
+  }
+
+  public void addAll(Collection<ZammadUser> users)
+  {
+    users.forEach(this::add);
+  }
+
+  /**
+   * @return the entry index of the login or -1 if not found
+   */
+  public int find(String login)
+  {
+    String key = normalize(login);
+    int slot = (key.hashCode() & 0x7fffffff) % slots.length;
+
+    while (slots[slot] >= 0)
+    {
+      if (logins[slots[slot]].equals(key))
+      {
+        return slots[slot];
+      }
+
+      slot = (slot + 1) % slots.length;
+    }
+
+    return -1;
+  }
+
+  private int freeSlot(String login)
+  {
+    int slot = (login.hashCode() & 0x7fffffff) % slots.length;
+
+    while (slots[slot] >= 0)
+    {
+      slot = (slot + 1) % slots.length;
+    }
+
+    return slot;
+  }
+
+  public boolean contains(String login)
+  {
+    return find(login) >= 0;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public int getId(int index)
+  {
+    return ids[index];
+  }
+
+  public String getLogin(int index)
+  {
+    return logins[index];
+  }
+
+  public String getSource(int index)
+  {
+    return sources[index];
+  }
+
+  public long getFingerprint(int index)
+  {
+    return fingerprints[index];
+  }
+
+  /**
+   * @return a role mask to be used with hasAnyRole
+   */
+  public long[] roleMask(Collection<Integer> roleIdList)
+  {
+    long[] mask = new long[roleWords];
+
+    if (roleIdList != null)
+    {
+      for (Integer roleId : roleIdList)
+      {
+        Integer bit = roleBitMap.get(roleId);
+
+        if (bit != null)
+        {
+          mask[bit >> 6] |= 1l << (bit & 63);
+        }
+      }
+    }
+
+    return mask;
+  }
+
+  public boolean hasAnyRole(int index, long[] mask)
+  {
+    int offset = index * roleWords;
+
+    for (int i = 0; i < roleWords; i++)
+    {
+      if ((roleBits[offset + i] & mask[i]) != 0)
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  public List<Integer> getRoleIds(int index)
+  {
+    List<Integer> result = new ArrayList<>();
+    int offset = index * roleWords;
+
+    for (int bit = 0; bit < roleIds.length; bit++)
+    {
+      if ((roleBits[offset + (bit >> 6)] & (1l << (bit & 63))) != 0)
+      {
+        result.add(roleIds[bit]);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return a minimal zammad user with id, login, source and role ids
+   */
+  public ZammadUser getUser(int index)
+  {
+    ZammadUser user = new ZammadUser();
+    user.setId(ids[index]);
+    user.setLogin(logins[index]);
+    user.setSource(sources[index]);
+    user.setRole_ids(getRoleIds(index));
+    return user;
+  }
+
+  /**
+   * 64 bit FNV-1a hash over the synced attributes and the sorted role
+   * names of a zammad user. Role names are taken from roles, if set, or
+   * resolved from role_ids.
+   */
+  public long fingerprint(ZammadUser user)
+  {
+    long hash = FNV_OFFSET;
+
+    for (Object value : new Object[]
+    {
+      user.getLogin() == null ? null : normalize(user.getLogin()),
+      user.getFirstname(), user.getLastname(), user.getEmail(),
+      user.getPhone(), user.getFax(), user.getMobile(), user.getWeb(),
+      user.getDepartment(), user.getVerified(), user.getSource(),
+      user.getCustomernumber(), user.getLocation(), user.getBuilding(),
+      user.getRoom()
+    })
+    {
+      hash = hash(hash, (value == null) ? "" : value.toString());
+    }
+
+    if (withOrganizations)
+    {
+      hash = hash(hash, (user.getOrganization_id() == null)
+        ? "" : user.getOrganization_id().toString());
+
+      List<Integer> organizationIds = (user.getOrganization_ids() == null)
+        ? new ArrayList<>() : new ArrayList<>(user.getOrganization_ids());
+      organizationIds.sort(null);
+      hash = hash(hash, organizationIds.toString());
+    }
+
+    List<String> names = new ArrayList<>();
+
+    if (user.getRoles() != null)
+    {
+      names.addAll(user.getRoles());
+    }
+    else if (user.getRole_ids() != null)
+    {
+      for (Integer roleId : user.getRole_ids())
+      {
+        Integer bit = roleBitMap.get(roleId);
+
+        if (bit != null)
+        {
+          names.add(roleNames[bit]);
+        }
+      }
+    }
+
+    names.sort(null);
+
+    for (String name : names)
+    {
+      hash = hash(hash, name);
+    }
+
+    return hash;
+  }
+
+  /**
+   * An update can only be skipped by its fingerprint if it sets no other
+   * fields than the fingerprinted ones, group_ids are handled by the group
+   * mapping snapshot.
+   *
+   * @return true if all fields set by the update are fingerprinted
+   */
+  public boolean isFingerprinted(ZammadUser user)
+  {
+    if (!fingerprintsKnown)
+    {
+      return false;
+    }
+
+    for (Object value : new Object[]
+    {
+      user.getOrganization(), user.getPassword(),
+      user.getVip(), user.getActive(), user.getPrepare_for_deletion(),
+      user.getNote(), user.getOut_of_office(), user.getPreferences(),
+      user.getAuthorization_ids(), user.getOverview_sorting_ids()
+    })
+    {
+      if (value != null)
+      {
+        return false;
+      }
+    }
+
+    return withOrganizations || (user.getOrganization_id() == null
+      && user.getOrganization_ids() == null);
+  }
+
+  /**
+   * The added users are partial (e.g. merge join records with login, id,
+   * roles, source and email), their fingerprints can not be compared and
+   * no update is skipped.
+   */
+  public void setPartialUsers()
+  {
+    fingerprintsKnown = false;
+  }
+
+  private static long hash(long hash, String value)
+  {
+    for (int i = 0; i < value.length(); i++)
+    {
+      hash ^= value.charAt(i);
+      hash *= FNV_PRIME;
+    }
+
+    // field separator
+    hash ^= 0xffff;
+    hash *= FNV_PRIME;
+    return hash;
+  }
+
+  private final int[] roleIds;
+
+  private final String[] roleNames;
+
+  private final Map<Integer, Integer> roleBitMap = new HashMap<>();
+
+  private final int roleWords;
+
+  private final boolean withOrganizations;
+
+  private int[] ids;
+
+  private String[] logins;
+
+  private String[] sources;
+
+  private long[] fingerprints;
+
+  private long[] roleBits;
+
+  private int[] slots;
+
+  private int size;
+
+  private boolean fingerprintsKnown = true;
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.handler;
+
+import com.unboundid.asn1.ASN1GeneralizedTime;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import l9g.app.ldap2zammad.Config;
+import l9g.app.ldap2zammad.engine.ZammadUserIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.NativeDetector;
+import org.springframework.stereotype.Component;
+
+/**
+ * Uploads ldap photos (sync.avatar.attribute) as zammad avatars.
+ *
+ * The photos are read in a separate pass after the user sync, with only
+ * the user id and the photo attribute and small ldap pages, so the binary
+ * attributes never slow down the attribute sync. The SHA-256 hash of
+ * every uploaded photo is kept in the var directory, a photo is scaled
+ * and uploaded only if its hash changed. The uploads are limited to
+ * sync.avatar.uploads-per-second.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@Component
+public class AvatarHandler
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(AvatarHandler.class);
+
+  private static final String HASHES_FILENAME = "avatar.hashes";
+
+  @Autowired
+  private Config config;
+
+  @Autowired
+  private LdapHandler ldapHandler;
+
+  @Autowired
+  private ZammadHandler zammadHandler;
+
+  @Bean
+  public AvatarHandler avatarHandlerBean()
+  {
+    LOGGER.debug("getAvatarHandler");
+    return this;
+  }
+
+  /**
+   * The native binary has no AWT and ImageIO, the photos can not be
+   * scaled. Checked before the sync starts.
+   */
+  public void checkSupported()
+  {
+    if (NativeDetector.inNativeImage())
+    {
+      throw new IllegalStateException("sync.avatar.enabled is not supported "
+        + "by the native binary, run ldap2zammad.jar or disable it");
+    }
+  }
+
+  /**
+   * Syncs the photos of the ldap entries modified since the timestamp. The
+   * zammad users of these entries must be loaded by the user sync, new
+   * users are looked up.
+   *
+   * @param writeHashes false for dry runs and plans
+   */
+  public void syncAvatars(ASN1GeneralizedTime timestamp, File varDirectory,
+    String prefix, boolean writeHashes) throws Throwable
+  {
+    LOGGER.info("syncing avatars");
+    File hashesFile = new File(varDirectory, prefix + "-" + HASHES_FILENAME);
+    Map<String, String> hashes = readHashes(hashesFile);
+
+    // users created by this sync are not in the index yet
+    List<String> unknownLogins = ldapHandler.getLdapEntryMap().keySet()
+      .stream().filter(login -> !zammadHandler.getZammadUserIndex()
+      .contains(login)).toList();
+
+    if (!unknownLogins.isEmpty())
+    {
+      zammadHandler.lookupZammadUsers(unknownLogins);
+    }
+
+    ZammadUserIndex index = zammadHandler.getZammadUserIndex();
+    String attribute = config.getSyncAvatarAttribute();
+    int[] counter = new int[2];
+    long interval = (config.getSyncAvatarUploadsPerSecond() > 0)
+      ? 1000 / config.getSyncAvatarUploadsPerSecond() : 0;
+    long[] nextUpload = new long[1];
+
+    ldapHandler.forEachLdapEntry(timestamp, new String[]
+    {
+      config.getLdapUserId(), attribute
+    }, config.getSyncAvatarPageSize(), entry ->
+    {
+      String login = ZammadUserIndex.normalize(
+        entry.getAttributeValue(config.getLdapUserId()));
+      byte[] photo = entry.getAttributeValueBytes(attribute);
+
+      if (photo == null || photo.length == 0)
+      {
+        if (hashes.remove(login) != null)
+        {
+          LOGGER.info("AVATAR REMOVED FROM LDAP: {}", login);
+        }
+        return;
+      }
+
+      String hash = hash(photo);
+      int zammadUserIndex = index.find(login);
+
+      if (hash.equals(hashes.get(login)) || zammadUserIndex < 0)
+      {
+        return;
+      }
+
+      byte[] image = resize(photo);
+
+      if (image == null)
+      {
+        LOGGER.warn("AVATAR unreadable image format: {}", login);
+        counter[1]++;
+      }
+      else
+      {
+        // spreads the uploads, zammad scales and stores every avatar
+        long wait = nextUpload[0] - System.currentTimeMillis();
+
+        if (wait > 0)
+        {
+          Thread.sleep(wait);
+        }
+
+        nextUpload[0] = System.currentTimeMillis() + interval;
+
+        if (zammadHandler.updateAvatar(index.getId(zammadUserIndex), login,
+          "data:image/jpeg;base64,"
+          + Base64.getEncoder().encodeToString(image)))
+        {
+          hashes.put(login, hash);
+          counter[0]++;
+        }
+        else
+        {
+          counter[1]++;
+        }
+      }
+    });
+
+    LOGGER.info("avatars done: {} uploaded, {} failed", counter[0],
+      counter[1]);
+
+    if (writeHashes)
+    {
+      writeHashes(hashesFile, hashes);
+    }
+  }
+
+  /**
+   * Scales the photo to at most sync.avatar.size pixels.
+   *
+   * @return jpeg data or null if the image format is unknown
+   */
+  private byte[] resize(byte[] photo) throws IOException
+  {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(photo));
+
+    if (image == null)
+    {
+      return null;
+    }
+
+    double scale = Math.min(1.0, (double) config.getSyncAvatarSize()
+      / Math.max(image.getWidth(), image.getHeight()));
+    int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+    BufferedImage scaled
+      = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = scaled.createGraphics();
+
+    try
+    {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, width, height, null);
+    }
+    finally
+    {
+      graphics.dispose();
+    }
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ImageIO.write(scaled, "jpg", output);
+    return output.toByteArray();
+  }
+
+  private static String hash(byte[] data) throws Exception
+  {
+    return Base64.getEncoder().withoutPadding().encodeToString(
+      MessageDigest.getInstance("SHA-256").digest(data));
+  }
+
+  private Map<String, String> readHashes(File file) throws IOException
+  {
+    Map<String, String> hashes = new HashMap<>();
+
+    if (file.exists() && file.canRead())
+    {
+      try (BufferedReader reader = new BufferedReader(new FileReader(file)))
+      {
+        String line;
+
+        while ((line = reader.readLine()) != null)
+        {
+          String[] record = line.split("\t");
+
+          if (record.length == 2)
+          {
+            hashes.put(record[0], record[1]);
+          }
+        }
+      }
+    }
+
+    LOGGER.debug("loaded {} avatar hashes", hashes.size());
+    return hashes;
+  }
+
+  private void writeHashes(File file, Map<String, String> hashes)
+    throws IOException
+  {
+    LOGGER.debug("writing {} avatar hashes", hashes.size());
+
+    try (PrintWriter out = new PrintWriter(file))
+    {
+      hashes.forEach((login, hash) ->
+      {
+        out.print(login);
+        out.print('\t');
+        out.println(hash);
+      });
+    }
+  }
+}
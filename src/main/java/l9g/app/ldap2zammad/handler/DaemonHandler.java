@@ -0,0 +1,181 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.handler;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import l9g.app.ldap2zammad.Config;
+import l9g.app.ldap2zammad.zammad.ZammadJsonCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * HTTP daemon for single user syncs.
+ *
+ * POST /sync-user/{login}[,{login}...] syncs the given logins with
+ * SyncHandler.syncUsers and returns the counters as JSON. If daemon.token
+ * is set, requests need the header 'Authorization: Bearer {token}'.
+ * Without a token the daemon only listens on a loopback address. More than
+ * daemon.max-logins-per-request logins are answered with 400, a failed
+ * sync answers 500, the daemon keeps running.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@Component
+public class DaemonHandler
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(DaemonHandler.class);
+
+  @Autowired
+  private Config config;
+
+  @Autowired
+  private CryptoHandler cryptoHandler;
+
+  @Autowired
+  private SyncHandler syncHandler;
+
+  @Autowired
+  private ZammadJsonCodec zammadJsonCodec;
+
+  @Bean
+  public DaemonHandler daemonHandlerBean()
+  {
+    LOGGER.debug("getDaemonHandler");
+    return this;
+  }
+
+  /**
+   * Serves requests until the jvm is stopped.
+   */
+  public void run()
+  {
+    config.setErrorExitDisabled(true);
+
+    byte[] authorization = (config.getDaemonToken() == null
+      || config.getDaemonToken().isBlank())
+      ? null : ("Bearer " + cryptoHandler.decrypt(config.getDaemonToken()))
+        .getBytes(StandardCharsets.UTF_8);
+
+    if (authorization == null && !isLoopback(config.getDaemonHost()))
+    {
+      throw new IllegalStateException("daemon.token is required to listen on "
+        + config.getDaemonHost() + ", only a loopback address is allowed "
+        + "without a token");
+    }
+
+    if (authorization == null)
+    {
+      LOGGER.warn("daemon.token is not set, requests are not authenticated");
+    }
+
+    DisposableServer server = HttpServer.create()
+      .host(config.getDaemonHost())
+      .port(config.getDaemonPort())
+      .route(routes -> routes.post("/sync-user/{logins}",
+      (request, response) -> syncUser(request, response, authorization)))
+      .bindNow();
+
+    LOGGER.info("daemon listening on {}:{}", config.getDaemonHost(),
+      config.getDaemonPort());
+
+    server.onDispose().block();
+  }
+
+  private Mono<Void> syncUser(HttpServerRequest request,
+    HttpServerResponse response, byte[] authorization)
+  {
+    String header
+      = request.requestHeaders().get(HttpHeaderNames.AUTHORIZATION);
+
+    // constant time comparison, the token can not be guessed bytewise
+    if (authorization != null && (header == null || !MessageDigest.isEqual(
+      authorization, header.getBytes(StandardCharsets.UTF_8))))
+    {
+      return response.status(HttpResponseStatus.UNAUTHORIZED).send();
+    }
+
+    List<String> logins = Arrays.stream(request.param("logins").split(","))
+      .map(String::trim).filter(login -> !login.isEmpty()).distinct()
+      .toList();
+
+    if (logins.size() > config.getDaemonMaxLoginsPerRequest())
+    {
+      return response.status(HttpResponseStatus.BAD_REQUEST)
+        .sendString(Mono.just("more than "
+          + config.getDaemonMaxLoginsPerRequest() + " logins")).then();
+    }
+
+    return Mono.<byte[]>create(sink ->
+    {
+      try
+      {
+        sink.success(syncUsers(logins));
+      }
+      catch (Throwable t)
+      {
+        sink.error(t);
+      }
+    })
+      // the sync is blocking
+      .subscribeOn(Schedulers.boundedElastic())
+      .flatMap(json -> response
+        .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+        .sendByteArray(Mono.just(json)).then())
+      .onErrorResume(t ->
+      {
+        LOGGER.error("sync-user {} failed", logins, t);
+        return response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
+          .sendString(Mono.just(String.valueOf(t.getMessage()))).then();
+      });
+  }
+
+  private static boolean isLoopback(String host)
+  {
+    try
+    {
+      return InetAddress.getByName(host).isLoopbackAddress();
+    }
+    catch (UnknownHostException e)
+    {
+      throw new IllegalStateException("unknown daemon.host " + host, e);
+    }
+  }
+
+  private byte[] syncUsers(List<String> logins) throws Throwable
+  {
+    // the dry-run setting of the config is used, it is not changed here
+    Map<String, Integer> result = syncHandler.syncUsers(logins);
+    return zammadJsonCodec.getObjectMapper().writeValueAsBytes(result);
+  }
+}
@@ -17,20 +17,43 @@ package l9g.app.ldap2zammad.handler;
 
 import com.unboundid.asn1.ASN1GeneralizedTime;
 import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.Attribute;
 import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Filter;
 import com.unboundid.ldap.sdk.LDAPConnection;
 import com.unboundid.ldap.sdk.LDAPConnectionOptions;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPSearchException;
+import com.unboundid.ldap.sdk.ResultCode;
 import com.unboundid.ldap.sdk.SearchRequest;
 import com.unboundid.ldap.sdk.SearchResult;
 import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.ldap.sdk.controls.ServerSideSortRequestControl;
 import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import com.unboundid.ldap.sdk.controls.SortKey;
 import com.unboundid.util.ssl.SSLUtil;
 import com.unboundid.util.ssl.TrustAllTrustManager;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.net.ssl.SSLSocketFactory;
 import l9g.app.ldap2zammad.Config;
+import l9g.app.ldap2zammad.engine.GroupMembershipResolver;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +71,10 @@ public class LdapHandler
   private final static Logger LOGGER 
     = LoggerFactory.getLogger(LdapHandler.class);
 
+  public final static String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+  private final static int USER_ID_BATCH_SIZE = 100;
+
   @Autowired
   private Config config;
 
@@ -87,6 +114,16 @@ public class LdapHandler
         cryptoHandler.decrypt(config.getLdapBindPassword()));
     }
     ldapConnection.setConnectionName(config.getLdapHostname());
+
+    if (firstConnection)
+    {
+      // startup benchmark, see STARTUP_BENCHMARK.sh, which enables
+      // the debug level of this logger
+      LOGGER.debug("first ldap connection {}ms after jvm start",
+        ManagementFactory.getRuntimeMXBean().getUptime());
+      firstConnection = false;
+    }
+
     return ldapConnection;
   }
 
@@ -117,72 +154,519 @@ public class LdapHandler
       lastSyncTimestamp.toString()
     });
 
-    LOGGER.debug("filter={}", filter);
+    int totalSourceEntries = search(filter, attributeNames(withAttributes),
+      false, this::putLdapEntry);
+
+    if (totalSourceEntries == 0)
+    {
+      LOGGER.info("no ldap entries found");
+    }
+    else
+    {
+      LOGGER.
+        info("loaded {} ldap entries", totalSourceEntries);
+    }
+  }
+
+  /**
+   * Catch-up read of a large delta window. The window is split into time
+   * slices of sliceMillis, bounded by the modifyTimestamp, which are
+   * searched in parallel on a pool of ldap connections. The entries are
+   * added to the entry map in timestamp order. The last slice has no upper
+   * bound, so entries modified while the slices are read are not lost.
+   *
+   * @return the slices in timestamp order
+   */
+  public List<TimeSlice> readLdapEntries(ASN1GeneralizedTime from,
+    ASN1GeneralizedTime to, long sliceMillis, int parallel) throws Throwable
+  {
+    ldapEntryMap.clear();
+
+    List<TimeSlice> slices = new ArrayList<>();
+    List<Future<List<Entry>>> results = new ArrayList<>();
+    String[] attributeNames = attributeNames(true);
+    ExecutorService executor = Executors.newFixedThreadPool(parallel);
+
+    try (LDAPConnectionPool pool
+      = new LDAPConnectionPool(getConnection(), parallel))
+    {
+      int count = (int) Math.max(1,
+        (to.getTime() - from.getTime() + sliceMillis - 1) / sliceMillis);
+
+      for (int i = 0; i < count; i++)
+      {
+        long start = from.getTime() + i * sliceMillis;
+        ASN1GeneralizedTime end = (i < count - 1)
+          ? new ASN1GeneralizedTime(start + sliceMillis) : null;
+
+        Filter filter = Filter.create(new MessageFormat(
+          config.getLdapFilter()).format(new Object[]
+        {
+          new ASN1GeneralizedTime(start).toString()
+        }));
+
+        if (end != null)
+        {
+          filter = Filter.createANDFilter(filter, Filter.createNOTFilter(
+            Filter.createGreaterOrEqualFilter(MODIFY_TIMESTAMP,
+              end.toString())));
+        }
+
+        String sliceFilter = filter.toString();
+        results.add(executor.submit(
+          () -> searchSlice(pool, sliceFilter, attributeNames)));
+        slices.add(new TimeSlice(end));
+      }
+
+      for (int i = 0; i < slices.size(); i++)
+      {
+        List<Entry> entries;
+
+        try
+        {
+          entries = results.get(i).get();
+        }
+        catch (ExecutionException e)
+        {
+          throw e.getCause();
+        }
+
+        entries.forEach(this::putLdapEntry);
+        slices.get(i).entryIndex = ldapEntryMap.size();
+        LOGGER.debug("slice {}/{}: {} ldap entries", i + 1, slices.size(),
+          entries.size());
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+
+    LOGGER.info("loaded {} ldap entries in {} time slice(s)",
+      ldapEntryMap.size(), slices.size());
+    return slices;
+  }
+
+  private List<Entry> searchSlice(LDAPConnectionPool pool, String filter,
+    String[] attributeNames) throws Exception
+  {
+    List<Entry> entries = new ArrayList<>();
+    LDAPConnection connection = pool.getConnection();
+
+    try
+    {
+      search(connection, config.getLdapBaseDn(), filter, attributeNames,
+        false, 1000, entries::add);
+    }
+    catch (Throwable t)
+    {
+      pool.releaseDefunctConnection(connection);
+      throw (t instanceof Exception) ? (Exception) t : new Exception(t);
+    }
+
+    pool.releaseConnection(connection);
+    entries.sort(Comparator.comparing(LdapHandler::getModifyTimestamp,
+      Comparator.nullsLast(Comparator.<Date>naturalOrder())));
+    return entries;
+  }
+
+  /**
+   * Reads only the ldap entries with the given user ids, the configured
+   * ldap filter still applies.
+   */
+  public void readLdapEntries(Collection<String> userIds) throws Throwable
+  {
+    ldapEntryMap.clear();
+
+    int totalSourceEntries;
 
     try (LDAPConnection connection = getConnection())
     {
-      SearchRequest searchRequest;
+      totalSourceEntries = searchUserIds(connection, userIds);
+    }
+
+    LOGGER.info("loaded {} of {} ldap entries", totalSourceEntries,
+      userIds.size());
+  }
+
+  /**
+   * Adds the ldap entries of the given user ids to the entry map, searched
+   * in batches of USER_ID_BATCH_SIZE user ids. The configured ldap filter
+   * still applies.
+   *
+   * @return number of added entries
+   */
+  public int addLdapEntriesByUserId(Collection<String> userIds)
+    throws Throwable
+  {
+    List<String> batch = new ArrayList<>();
+    int counter = 0;
 
-      if (withAttributes)
+    try (LDAPConnection connection = getConnection())
+    {
+      for (String userId : userIds)
       {
-        searchRequest = new SearchRequest(
-          config.getLdapBaseDn(), SearchScope.SUB, filter,
-          config.getLdapUserAttributeNames());
+        batch.add(userId);
+
+        if (batch.size() >= USER_ID_BATCH_SIZE)
+        {
+          counter += searchUserIds(connection, batch);
+          batch.clear();
+        }
       }
-      else
+
+      if (!batch.isEmpty())
       {
-        searchRequest = new SearchRequest(
-          config.getLdapBaseDn(), SearchScope.SUB, filter,
-          config.getLdapUserId());
+        counter += searchUserIds(connection, batch);
       }
+    }
+
+    LOGGER.info("added {} of {} ldap entries", counter, userIds.size());
+    return counter;
+  }
+
+  private int searchUserIds(LDAPConnection connection,
+    Collection<String> userIds) throws Throwable
+  {
+    List<Filter> userIdFilters = new ArrayList<>();
+
+    for (String userId : userIds)
+    {
+      userIdFilters.add(
+        Filter.createEqualityFilter(config.getLdapUserId(), userId));
+    }
+
+    Filter filter = Filter.createANDFilter(
+      Filter.create(new MessageFormat(config.getLdapFilter()).format(
+        new Object[]
+      {
+        new ASN1GeneralizedTime(0l).toString()
+      })),
+      Filter.createORFilter(userIdFilters));
 
-      int totalSourceEntries = 0;
-      ASN1OctetString resumeCookie = null;
-      SimplePagedResultsControl responseControl = null;
+    return search(connection, config.getLdapBaseDn(), filter.toString(),
+      attributeNames(true), false, 1000, this::putLdapEntry);
+  }
 
-      // int pagedResultSize = ldapConfig.getPagedResultSize() > 0
-      //   ? ldapConfig.getPagedResultSize() : 1000;
-      int pagedResultSize = 1000;
+  private String[] attributeNames(boolean withAttributes)
+  {
+    String[] attributeNames;
+
+    if (withAttributes)
+    {
+      // modifyTimestamp is operational and must be requested explicitly
+      attributeNames = Arrays.copyOf(
+        config.getLdapUserAttributeNames(),
+        config.getLdapUserAttributeNames().length + 1);
+      attributeNames[attributeNames.length - 1] = MODIFY_TIMESTAMP;
 
-      do
+      if (!config.getLdapUserUuid().isBlank())
       {
-        searchRequest.setControls(
-          new SimplePagedResultsControl(pagedResultSize, resumeCookie));
+        // entryUUID is operational as well
+        attributeNames = Arrays.copyOf(attributeNames,
+          attributeNames.length + 1);
+        attributeNames[attributeNames.length - 1] = config.getLdapUserUuid();
+      }
+
+      if (config.isSyncGroupMappingEnabled()
+        && config.isSyncGroupMappingMemberOf())
+      {
+        attributeNames = Arrays.copyOf(attributeNames,
+          attributeNames.length + 1);
+        attributeNames[attributeNames.length - 1]
+          = GroupMembershipResolver.MEMBER_OF;
+      }
+
+      if (config.isSyncOrganizationsEnabled())
+      {
+        int length = attributeNames.length;
+        attributeNames = Arrays.copyOf(attributeNames,
+          length + config.getSyncOrganizationsAttributes().length);
+        System.arraycopy(config.getSyncOrganizationsAttributes(), 0,
+          attributeNames, length,
+          config.getSyncOrganizationsAttributes().length);
+      }
+    }
+    else
+    {
+      attributeNames = new String[]
+      {
+        config.getLdapUserId()
+      };
+    }
+
+    return attributeNames;
+  }
+
+  private void putLdapEntry(Entry entry)
+  {
+    String userId = entry.getAttributeValue(
+      config.getLdapUserId()).trim().toLowerCase();
+
+    // an entry read again moves to the end, the map stays in timestamp
+    // order (a put of an existing key keeps the old position)
+    ldapEntryMap.remove(userId);
+    ldapEntryMap.put(userId, entry);
+  }
+
+  /**
+   * Streams the lowercase user ids of all ldap entries without keeping
+   * them in memory. With ldap.server-side-sort the entries are requested
+   * in ascending user id order.
+   *
+   * @return number of ldap entries
+   */
+  public int forEachLdapUid(LdapUidCallback callback) throws Throwable
+  {
+    String filter = new MessageFormat(
+      config.getLdapFilter()).format(new Object[]
+    {
+      new ASN1GeneralizedTime(0).toString()
+    });
+
+    int totalSourceEntries = search(filter, new String[]
+    {
+      config.getLdapUserId()
+    }, config.isLdapServerSideSort(),
+      entry -> callback.uid(entry.getAttributeValue(
+        config.getLdapUserId()).trim().toLowerCase()));
+
+    LOGGER.info("streamed {} ldap user ids", totalSourceEntries);
+    return totalSourceEntries;
+  }
 
-        SearchResult sourceSearchResult = connection.search(searchRequest);
+  /**
+   * Adds the ldap entries of the given user dns to the entry map, e.g.
+   * users with a changed group membership. The configured ldap filter
+   * still applies.
+   *
+   * @return number of added entries
+   */
+  public int addLdapEntries(Collection<String> dns) throws Throwable
+  {
+    String filter = new MessageFormat(
+      config.getLdapFilter()).format(new Object[]
+    {
+      new ASN1GeneralizedTime(0l).toString()
+    });
 
-        int sourceEntries = sourceSearchResult.getEntryCount();
-        totalSourceEntries += sourceEntries;
+    int counter = 0;
 
-        if (sourceEntries > 0)
+    try (LDAPConnection connection = getConnection())
+    {
+      for (String dn : dns)
+      {
+        try
         {
-          for (Entry entry : sourceSearchResult.getSearchEntries())
+          SearchResult result = connection.search(new SearchRequest(dn,
+            SearchScope.BASE, filter, attributeNames(true)));
+
+          for (Entry entry : result.getSearchEntries())
           {
-            ldapEntryMap.put(
-              entry.getAttributeValue(
-                config.getLdapUserId()).trim().toLowerCase(), entry);
+            putLdapEntry(entry);
+            counter++;
           }
-
-          responseControl = SimplePagedResultsControl.get(sourceSearchResult);
-
-          if (responseControl != null)
+        }
+        catch (LDAPSearchException e)
+        {
+          if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT)
           {
-            resumeCookie = responseControl.getCookie();
+            throw e;
           }
+
+          LOGGER.debug("ldap entry not found: {}", dn);
+        }
+      }
+    }
+
+    LOGGER.info("added {} of {} ldap entries", counter, dns.size());
+    return counter;
+  }
+
+  /**
+   * Streams all ldap groups (sync.group-mapping.filter) with the dns of
+   * their direct members.
+   *
+   * @return number of ldap groups
+   */
+  public int forEachGroup(GroupCallback callback) throws Throwable
+  {
+    String baseDn = config.getSyncGroupMappingBaseDn().isBlank()
+      ? config.getLdapBaseDn() : config.getSyncGroupMappingBaseDn();
+    String[] memberAttributes = config.getSyncGroupMappingMemberAttributes();
+
+    return search(baseDn, config.getSyncGroupMappingFilter(),
+      memberAttributes, false, entry ->
+    {
+      List<String> members = new ArrayList<>();
+
+      for (String memberAttribute : memberAttributes)
+      {
+        String[] values = entry.getAttributeValues(memberAttribute);
+
+        if (values != null)
+        {
+          members.addAll(Arrays.asList(values));
         }
       }
-      while (responseControl != null && responseControl.moreResultsToReturn());
 
-      if (totalSourceEntries == 0)
+      callback.group(entry.getDN(), members);
+    });
+  }
+
+  /**
+   * Streams the user entries modified since the timestamp with only the
+   * given attributes, e.g. large binary attributes in small pages.
+   *
+   * @return number of ldap entries
+   */
+  public int forEachLdapEntry(ASN1GeneralizedTime timestamp,
+    String[] attributeNames, int pageSize, EntryCallback callback)
+    throws Throwable
+  {
+    String filter = new MessageFormat(
+      config.getLdapFilter()).format(new Object[]
+    {
+      timestamp.toString()
+    });
+
+    return search(config.getLdapBaseDn(), filter, attributeNames, false,
+      pageSize, callback);
+  }
+
+  private int search(String filter, String[] attributeNames,
+    boolean serverSideSort, EntryCallback callback) throws Throwable
+  {
+    return search(config.getLdapBaseDn(), filter, attributeNames,
+      serverSideSort, callback);
+  }
+
+  private int search(String baseDn, String filter, String[] attributeNames,
+    boolean serverSideSort, EntryCallback callback) throws Throwable
+  {
+    return search(baseDn, filter, attributeNames, serverSideSort, 1000,
+      callback);
+  }
+
+  private int search(String baseDn, String filter, String[] attributeNames,
+    boolean serverSideSort, int pagedResultSize, EntryCallback callback)
+    throws Throwable
+  {
+    try (LDAPConnection connection = getConnection())
+    {
+      return search(connection, baseDn, filter, attributeNames,
+        serverSideSort, pagedResultSize, callback);
+    }
+  }
+
+  /**
+   * Paged search, all pages are requested on the same connection.
+   */
+  private int search(LDAPConnection connection, String baseDn,
+    String filter, String[] attributeNames, boolean serverSideSort,
+    int pagedResultSize, EntryCallback callback) throws Throwable
+  {
+    LOGGER.debug("filter={}", filter);
+
+    SearchRequest searchRequest = new SearchRequest(
+      baseDn, SearchScope.SUB, filter, attributeNames);
+
+    int totalSourceEntries = 0;
+    ASN1OctetString resumeCookie = null;
+    SimplePagedResultsControl responseControl = null;
+
+    do
+    {
+      SimplePagedResultsControl pagedResultsControl
+        = new SimplePagedResultsControl(pagedResultSize, resumeCookie);
+
+      if (serverSideSort)
       {
-        LOGGER.info("no ldap entries found");
+        // not critical, unsorted results are sorted by the caller
+        searchRequest.setControls(pagedResultsControl,
+          new ServerSideSortRequestControl(false,
+            new SortKey(config.getLdapUserId())));
       }
       else
       {
-        LOGGER.
-          info("loaded {} ldap entries", totalSourceEntries);
+        searchRequest.setControls(pagedResultsControl);
+      }
+
+      SearchResult sourceSearchResult = connection.search(searchRequest);
+
+      int sourceEntries = sourceSearchResult.getEntryCount();
+      totalSourceEntries += sourceEntries;
+
+      if (sourceEntries > 0)
+      {
+        for (Entry entry : sourceSearchResult.getSearchEntries())
+        {
+          callback.entry(entry);
+        }
+
+        responseControl = SimplePagedResultsControl.get(sourceSearchResult);
+
+        if (responseControl != null)
+        {
+          resumeCookie = responseControl.getCookie();
+        }
       }
     }
+    while (responseControl != null && responseControl.moreResultsToReturn());
+
+    return totalSourceEntries;
+  }
+
+  /**
+   * @return the modifyTimestamp of the entry or null if not available
+   */
+  public static Date getModifyTimestamp(Entry entry)
+  {
+    return entry.getAttributeValueAsDate(MODIFY_TIMESTAMP);
+  }
+
+  /**
+   * Builds a fingerprint over the dn and all attributes of an ldap entry
+   * except the modifyTimestamp.
+   */
+  public static String fingerprint(Entry entry)
+  {
+    try
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(entry.getDN().toLowerCase().getBytes(
+        StandardCharsets.UTF_8));
+
+      List<Attribute> attributes = new ArrayList<>(entry.getAttributes());
+      attributes.sort((a, b) -> a.getName().compareToIgnoreCase(b.getName()));
+
+      for (Attribute attribute : attributes)
+      {
+        if (!MODIFY_TIMESTAMP.equalsIgnoreCase(attribute.getName()))
+        {
+          digest.update((byte) 0);
+          digest.update(attribute.getName().toLowerCase().getBytes(
+            StandardCharsets.UTF_8));
+
+          String[] values = attribute.getValues();
+          Arrays.sort(values);
+
+          for (String value : values)
+          {
+            digest.update((byte) 1);
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+          }
+        }
+      }
+
+      return Base64.getEncoder().withoutPadding().encodeToString(
+        Arrays.copyOf(digest.digest(), 16));
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      LOGGER.error("fingerprint", e);
+      return null;
+    }
   }
 
   public void readAllLdapEntryUIDs() throws Throwable
@@ -202,6 +686,47 @@ public class LdapHandler
     printLdapEntriesMap();
   }
 
+  public interface LdapUidCallback
+  {
+    void uid(String uid) throws Throwable;
+  }
+
+  public interface GroupCallback
+  {
+    void group(String dn, List<String> memberDns) throws Throwable;
+  }
+
+  public interface EntryCallback
+  {
+    void entry(Entry entry) throws Throwable;
+  }
+
+  /**
+   * A time slice of a catch-up read.
+   */
+  public static class TimeSlice
+  {
+    TimeSlice(ASN1GeneralizedTime end)
+    {
+      this.end = end;
+    }
+
+    /**
+     * exclusive upper bound of the modifyTimestamp, null for the last slice
+     */
+    @Getter
+    private final ASN1GeneralizedTime end;
+
+    /**
+     * number of entries in the entry map up to and including this slice
+     */
+    @Getter
+    private int entryIndex;
+  }
+
   @Getter
-  private final HashMap<String, Entry> ldapEntryMap = new HashMap<>();
+  private final LinkedHashMap<String, Entry> ldapEntryMap
+    = new LinkedHashMap<>();
+
+  private boolean firstConnection = true;
 }
@@ -0,0 +1,1721 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.handler;
+
+import ch.qos.logback.classic.Level;
+import com.unboundid.asn1.ASN1GeneralizedTime;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.RDN;
+import jakarta.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import l9g.app.ldap2zammad.Config;
+import l9g.app.ldap2zammad.GroupMapping;
+import l9g.app.ldap2zammad.IdentityMap;
+import l9g.app.ldap2zammad.LogbackConfig;
+import l9g.app.ldap2zammad.ReconcileShards;
+import l9g.app.ldap2zammad.SyncJournal;
+import l9g.app.ldap2zammad.SyncPlan;
+import l9g.app.ldap2zammad.SyncPlanner;
+import l9g.app.ldap2zammad.TimestampUtil;
+import l9g.app.ldap2zammad.ZammadUserCache;
+import l9g.app.ldap2zammad.engine.GroupMembershipResolver;
+import l9g.app.ldap2zammad.engine.JavaScriptEngine;
+import l9g.app.ldap2zammad.engine.ReconciliationEngine;
+import l9g.app.ldap2zammad.engine.SortedSpool;
+import l9g.app.ldap2zammad.engine.ZammadUserIndex;
+import l9g.app.ldap2zammad.model.ZammadAnonymousUser;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import l9g.app.ldap2zammad.zammad.ZammadJsonCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * The LDAP to Zammad user sync, used by the sync shell command and by the
+ * batch launcher.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@Component
+public class SyncHandler
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(SyncHandler.class);
+
+  @Autowired
+  private Config config;
+
+  @Autowired
+  private LdapHandler ldapHandler;
+
+  @Autowired
+  private ZammadHandler zammadHandler;
+
+  @Autowired
+  private LogbackConfig logbackConfig;
+
+  @Autowired
+  private AvatarHandler avatarHandler;
+
+  @Autowired
+  private ZammadJsonCodec zammadJsonCodec;
+
+  @Bean
+  public SyncHandler syncHandlerBean()
+  {
+    LOGGER.debug("getSyncHandler");
+    return this;
+  }
+
+  public void sync(boolean fullSync, boolean dryRun, boolean debug,
+    boolean trace, boolean resume) throws Throwable
+  {
+    sync(fullSync, dryRun, debug, trace, resume, null);
+  }
+
+  public void sync(boolean fullSync, boolean dryRun, boolean debug,
+    boolean trace, boolean resume, String planFile) throws Throwable
+  {
+    sync(fullSync, dryRun, debug, trace, resume, planFile, null);
+  }
+
+  public void sync(boolean fullSync, boolean dryRun, boolean debug,
+    boolean trace, boolean resume, String planFile, String maxDuration)
+    throws Throwable
+  {
+    sync(fullSync, dryRun, debug, trace, resume, planFile, maxDuration,
+      false);
+  }
+
+  /**
+   * @param planFile if not null, all write operations are written to this
+   * plan file instead of zammad (see apply). Like a dry run, a planning run
+   * does not change the sync state in data/var.
+   * @param maxDuration time budget, e.g. '15m' (minutes if no unit is
+   * given) or null. When the budget runs out the sync stops before the next
+   * user, the journal is kept and the next sync continues there.
+   * @param forceDeletes the deletes are done even if the mass delete guard
+   * would abort the sync
+   */
+  public synchronized void sync(boolean fullSync, boolean dryRun,
+    boolean debug, boolean trace, boolean resume, String planFile,
+    String maxDuration, boolean forceDeletes) throws Throwable
+  {
+    // the sync profiles share the logback context, a profile never
+    // changes the log levels of the other profiles
+    boolean changeLevels = (debug || trace) && !config.isTenant();
+    Level rootLevel = logbackConfig.getRootLogger().getLevel();
+    Level l9gLevel = logbackConfig.getL9gLogger().getLevel();
+
+    if (changeLevels && debug)
+    {
+      logbackConfig.getL9gLogger().setLevel(Level.DEBUG);
+    }
+
+    if (changeLevels && trace)
+    {
+      logbackConfig.getRootLogger().setLevel(Level.TRACE);
+      logbackConfig.getL9gLogger().setLevel(Level.TRACE);
+    }
+
+    try
+    {
+      runSync(fullSync, dryRun, debug || trace, trace, resume, planFile,
+        maxDuration, forceDeletes);
+    }
+    finally
+    {
+      if (changeLevels)
+      {
+        logbackConfig.getRootLogger().setLevel(rootLevel);
+        logbackConfig.getL9gLogger().setLevel(l9gLevel);
+      }
+    }
+  }
+
+  private void runSync(boolean fullSync, boolean dryRun, boolean debug,
+    boolean trace, boolean resume, String planFile, String maxDuration,
+    boolean forceDeletes) throws Throwable
+  {
+    LOGGER.info("dry-run = '{}', full-sync = '{}', debug = '{}', trace = '{}', resume = '{}', plan = '{}', max-duration = '{}', force-deletes = '{}'", dryRun, fullSync, debug, trace, resume, planFile, maxDuration, forceDeletes);
+    LOGGER.info("zammad server: '{}'", config.getZammadBaseUrl());
+    LOGGER.info("ldap server: 'ldap{}://{}:{}'",
+      (config.isLdapSslEnabled())?"s":"",
+      config.getLdapHostname(),
+      config.getLdapPort());
+    
+    config.setDebug(debug);
+    config.setDryRun(dryRun);
+    config.setForceDeletes(forceDeletes);
+
+    if (config.isSyncAvatarEnabled() && planFile == null)
+    {
+      avatarHandler.checkSupported();
+    }
+
+    SyncRun run = new SyncRun();
+    run.fullSync = fullSync;
+    run.keepState = dryRun || planFile != null;
+    config.setKeepState(run.keepState);
+    run.deadline = (maxDuration == null || maxDuration.isBlank())
+      ? Long.MAX_VALUE : System.currentTimeMillis() + DurationStyle
+      .detectAndParse(maxDuration, ChronoUnit.MINUTES).toMillis();
+    run.timestampUtil = new TimestampUtil(config.getConfigPath(),
+      "zammad-users", config.getSyncTimestampOverlapSeconds());
+
+    try (SyncJournal journal = new SyncJournal(
+      run.timestampUtil.getVarDirectory(), "zammad-users", !run.keepState);
+      SortedSpool ldapUidSpool = new SortedSpool("ldap-uids");
+      SyncPlan plan = (planFile != null) ? new SyncPlan(new File(planFile),
+        zammadJsonCodec.getObjectMapper()) : null)
+    {
+      run.journal = journal;
+      run.ldapUidSpool = ldapUidSpool;
+      run.plan = plan;
+
+      beginSync(run, resume);
+      readPhase(run);
+      deletePhase(run);
+      updatePhase(run);
+      completeBulkDelete(run);
+      finalizePhase(run);
+    }
+  }
+
+  /**
+   * Loads the journal of an interrupted or yielded sync and the sync state
+   * of data/var.
+   */
+  private void beginSync(SyncRun run, boolean resume) throws Throwable
+  {
+    if (run.journal.load())
+    {
+      if (run.journal.isYielded() && run.keepState)
+      {
+        // the stopped sync is left to the next real sync
+        LOGGER.info("ignoring sync stopped by max-duration, dry-run or plan starts over");
+        run.journal.reset();
+      }
+      else if (run.journal.isYielded())
+      {
+        run.fullSync = run.journal.isFullSync();
+        LOGGER.info("continuing sync stopped by max-duration, full-sync = '{}'", run.fullSync);
+      }
+      else if (resume)
+      {
+        run.fullSync = run.journal.isFullSync();
+        LOGGER.info("resuming interrupted sync, full-sync = '{}'", run.fullSync);
+      }
+      else
+      {
+        LOGGER.warn("previous sync was interrupted, starting over");
+        run.journal.reset();
+      }
+    }
+    else if (resume)
+    {
+      LOGGER.info("no interrupted sync found, starting a new sync");
+    }
+
+    run.journal.begin(run.timestampUtil.getCurrentTimestamp(), run.fullSync);
+
+    zammadHandler.readZammadRoles();
+
+    run.planner = new SyncPlanner(run.timestampUtil.getVarDirectory(),
+      "zammad-users", config.getZammadUsersPerPage(),
+      config.getSyncLookupBatchSize(), config.isSyncUserCacheEnabled());
+
+    run.identityMap = config.getLdapUserUuid().isBlank() ? null
+      : new IdentityMap(run.timestampUtil.getVarDirectory(), "zammad-users");
+
+    zammadHandler.setUserCache(config.isSyncUserCacheEnabled()
+      ? new ZammadUserCache(run.timestampUtil.getVarDirectory(), "zammad-users",
+        config.getSyncUserCacheFullRefreshHours(),
+        zammadJsonCodec.getObjectMapper())
+      : null);
+  }
+
+  /**
+   * READ, loads the changed ldap entries, the entries of the reconcile
+   * shard and the members of changed groups.
+   */
+  private void readPhase(SyncRun run) throws Throwable
+  {
+    if (run.fullSync)
+    {
+      run.timestamp = new ASN1GeneralizedTime(0l); // 01.01.1970, unix time 0
+    }
+    else
+    {
+      run.timestamp = run.timestampUtil.getDeltaStartTimestamp();
+    }
+
+    LOGGER.info( "looking for users to update or create since last sync ({})", run.timestamp.getStringRepresentation());
+
+    long catchUpMillis = config.getSyncCatchUpThresholdHours() * 3600000l;
+
+    if (!run.fullSync && run.timestamp.getTime() > 0 && catchUpMillis > 0
+      && run.timestampUtil.getCurrentTimestamp().getTime()
+      - run.timestamp.getTime() > catchUpMillis)
+    {
+      ASN1GeneralizedTime start = run.timestamp;
+
+      if (run.journal.getSliceCheckpoint() != null
+        && run.journal.getSliceCheckpoint().getTime() > start.getTime())
+      {
+        start = run.journal.getSliceCheckpoint();
+        LOGGER.info("resuming catch-up at completed slice ({})",
+          start.getStringRepresentation());
+      }
+
+      LOGGER.info("catch-up mode, reading {} hour time slices",
+        config.getSyncCatchUpSliceHours());
+      run.slices.addAll(ldapHandler.readLdapEntries(start,
+        run.timestampUtil.getCurrentTimestamp(),
+        Math.max(1, config.getSyncCatchUpSliceHours()) * 3600000l,
+        Math.max(1, config.getSyncCatchUpParallel())));
+    }
+    else
+    {
+      ldapHandler.readLdapEntries(run.timestamp, true);
+    }
+
+    run.reconcileShards = (!run.fullSync
+      && config.getSyncRollingReconcileShards() > 0)
+      ? new ReconcileShards(run.timestampUtil.getVarDirectory(), "zammad-users",
+        config.getSyncRollingReconcileShards()) : null;
+
+    if (run.reconcileShards != null)
+    {
+      // the ldap uids of the last sync, new uids are part of the delta
+      Set<String> lastLdapUids = run.planner.readLastLdapUids();
+
+      if (lastLdapUids == null)
+      {
+        // the shard is kept for the next sync
+        LOGGER.warn("rolling reconciliation skipped, the ldap uids of the "
+          + "last sync are unknown until a sync completes");
+        run.reconcileShards = null;
+      }
+      else
+      {
+        lastLdapUids.stream().filter(run.reconcileShards::contains)
+          .forEach(run.reconcileLogins::add);
+        LOGGER.info("reconciling shard {} of {}: {} user(s)",
+          run.reconcileShards.getShard() + 1, run.reconcileShards.getShards(),
+          run.reconcileLogins.size());
+        ldapHandler.addLdapEntriesByUserId(run.reconcileLogins.stream()
+          .filter(uid -> !ldapHandler.getLdapEntryMap().containsKey(uid))
+          .toList());
+      }
+    }
+
+    run.groupResolver = createGroupResolver();
+    run.groupSnapshotFile = new File(run.timestampUtil.getVarDirectory(),
+      "zammad-users-group.members");
+
+    if (run.groupResolver != null)
+    {
+      // users with a changed group membership are synced as well
+      run.groupResolver.readSnapshot(run.groupSnapshotFile);
+      Set<String> loadedDns = new HashSet<>();
+      ldapHandler.getLdapEntryMap().values().forEach(entry -> loadedDns.add(
+        GroupMembershipResolver.normalizeDn(entry.getDN())));
+      List<String> changedDns = run.groupResolver.getChangedMembers().stream()
+        .filter(dn -> !loadedDns.contains(dn)).toList();
+
+      if (!changedDns.isEmpty())
+      {
+        ldapHandler.addLdapEntries(changedDns);
+      }
+    }
+
+    if (run.identityMap != null)
+    {
+      Set<String> ldapUuids = new HashSet<>();
+      ldapHandler.getLdapEntryMap().values().forEach(entry ->
+      {
+        String uuid = ldapUuid(entry);
+
+        if (uuid != null)
+        {
+          ldapUuids.add(uuid);
+        }
+      });
+      run.identityMap.setLdapUuids(ldapUuids);
+    }
+  }
+
+  /**
+   * DELETE, collects the zammad users without an ldap entry and deletes
+   * them, a bulk delete is completed by completeBulkDelete.
+   */
+  private void deletePhase(SyncRun run) throws Throwable
+  {
+    if (run.journal.isPhaseCompleted(SyncJournal.PHASE_DELETE))
+    {
+      LOGGER.info("delete phase already completed by interrupted sync");
+      return;
+    }
+
+    int zammadUserCount = config.isSyncMergeJoinEnabled()
+      ? collectDeletesByMergeJoin(run) : collectDeletes(run);
+
+    run.bulkDelete = deleteUsers(run.pendingDeletes, zammadUserCount,
+      run.deadline, run.journal, run.identityMap, run.plan, run.counters);
+    run.yielded = System.currentTimeMillis() >= run.deadline;
+
+    if (run.bulkDelete == null && !run.yielded)
+    {
+      run.journal.phaseCompleted(SyncJournal.PHASE_DELETE);
+    }
+  }
+
+  /**
+   * Collects the deletes with a sorted merge join of the ldap uids and the
+   * zammad users, the zammad users of the ldap entries are kept for the
+   * update phase.
+   *
+   * @return the number of zammad users
+   */
+  private int collectDeletesByMergeJoin(SyncRun run) throws Throwable
+  {
+    // only the zammad side is bounded, the ldap entries to update
+    // (all entries of a full sync) are already in the entry map
+    LOGGER.info("looking for users to delete (merge join)");
+    ldapHandler.forEachLdapUid(
+      uid -> run.ldapUidSpool.add(ZammadUserIndex.normalize(uid)));
+    run.ldapUids = run.ldapUidSpool;
+
+    Set<String> deltaLogins = new HashSet<>();
+    ldapHandler.getLdapEntryMap().keySet()
+      .forEach(login -> deltaLogins.add(ZammadUserIndex.normalize(login)));
+    List<ZammadUser> deltaUsers = new ArrayList<>();
+
+    try (SortedSpool zammadSpool = new SortedSpool("zammad-users"))
+    {
+      zammadHandler.forEachZammadUser("login", user ->
+      {
+        if (user.getLogin() != null)
+        {
+          zammadSpool.add(ReconciliationEngine.toRecord(user));
+        }
+      });
+
+      ReconciliationEngine.reconcile(run.ldapUidSpool.iterator(),
+        zammadSpool.iterator(), new ReconciliationEngine.Handler()
+      {
+        @Override
+        public void match(String login, ZammadUser zammadUser)
+        {
+          if (deltaLogins.contains(login))
+          {
+            deltaUsers.add(zammadUser);
+          }
+        }
+
+        @Override
+        public void ldapOnly(String login)
+        {
+          // create decision, done by the update phase with the
+          // entry of the entry map
+        }
+
+        @Override
+        public void zammadOnly(ZammadUser zammadUser) throws Throwable
+        {
+          collectDelete(zammadUser,
+            zammadUser.hasAnyRoles(config.getSyncProtectedRoleIds()),
+            run.journal, run.identityMap, run.pendingDeletes, run.counters);
+        }
+      });
+
+      if (!run.keepState)
+      {
+        run.planner.writeZammadUserCount(zammadSpool.size());
+      }
+    }
+
+    zammadHandler.setZammadUsers(deltaUsers);
+    run.deltaUsersResolved = true;
+    return run.planner.getZammadUserCount();
+  }
+
+  /**
+   * Collects the deletes from the loaded zammad users, all or only the
+   * users of the ldap uids removed since the last sync.
+   *
+   * @return the number of zammad users
+   */
+  private int collectDeletes(SyncRun run) throws Throwable
+  {
+    LOGGER.info("looking for users to delete");
+    Set<String> ldapUidSet = new HashSet<>();
+    ldapHandler.forEachLdapUid(
+      uid -> ldapUidSet.add(ZammadUserIndex.normalize(uid)));
+    run.ldapUids = ldapUidSet;
+
+    // ldap uids removed since the last sync, null if unknown
+    Set<String> removedLdapUids
+      = run.fullSync ? null : run.planner.readLastLdapUids();
+
+    if (removedLdapUids != null)
+    {
+      removedLdapUids.removeAll(ldapUidSet);
+      LOGGER.info("{} ldap uid(s) removed since last sync",
+        removedLdapUids.size());
+    }
+
+    if (removedLdapUids != null
+      && run.planner.useTargetedLookup(removedLdapUids.size()))
+    {
+      zammadHandler.readZammadUsers(removedLdapUids);
+    }
+    else
+    {
+      zammadHandler.readZammadUsers();
+
+      if (!run.keepState)
+      {
+        run.planner.writeZammadUserCount(
+          zammadHandler.getZammadUserIndex().size());
+      }
+    }
+
+    ZammadUserIndex index = zammadHandler.getZammadUserIndex();
+    long[] protectedMask = index.roleMask(config.getSyncProtectedRoleIds());
+
+    for (int i = 0; i < index.size(); i++)
+    {
+      if (!ldapUidSet.contains(index.getLogin(i))
+        && zammadHandler.isManagedSource(index.getSource(i)))
+      {
+        collectDelete(index.getUser(i),
+          index.hasAnyRole(i, protectedMask), run.journal, run.identityMap,
+          run.pendingDeletes, run.counters);
+      }
+    }
+
+    // unknown after a targeted lookup without a count of the last sync
+    return (run.planner.getZammadUserCount() >= 0)
+      ? run.planner.getZammadUserCount()
+      : ldapUidSet.size() + run.pendingDeletes.size();
+  }
+
+  /**
+   * Loads the zammad users of the ldap entries, if they are not already
+   * resolved by the delete phase.
+   */
+  private void loadZammadUsers(SyncRun run)
+  {
+    if (!run.deltaUsersResolved && !zammadHandler.isAllUsersLoaded()
+      && !run.yielded)
+    {
+      if (run.planner.useTargetedLookup(ldapHandler.getLdapEntryMap().size()))
+      {
+        zammadHandler.readZammadUsers(
+          ldapHandler.getLdapEntryMap().keySet());
+      }
+      else
+      {
+        zammadHandler.readZammadUsers();
+
+        if (!run.keepState)
+        {
+          run.planner.writeZammadUserCount(
+            zammadHandler.getZammadUserIndex().size());
+        }
+      }
+    }
+
+    if (config.isSyncManagedUsersOnly() && !run.yielded)
+    {
+      // adopt existing users without the source marker
+      List<String> unknownLogins = ldapHandler.getLdapEntryMap().keySet()
+        .stream().filter(login -> !zammadHandler.getZammadUserIndex()
+        .contains(login)).toList();
+
+      if (!unknownLogins.isEmpty())
+      {
+        zammadHandler.lookupZammadUsers(unknownLogins);
+      }
+    }
+  }
+
+  /**
+   * UPDATE, creates or updates the zammad users of the ldap entries.
+   */
+  private void updatePhase(SyncRun run) throws Throwable
+  {
+    loadZammadUsers(run);
+
+    ///////////////////////////////////////////////////////////////////////////
+    // ORGANIZATIONS
+    if (config.isSyncOrganizationsEnabled() && !run.yielded)
+    {
+      LOGGER.info("syncing organizations");
+      zammadHandler.readZammadOrganizations();
+      Set<String> organizationNames = new HashSet<>();
+      ldapHandler.getLdapEntryMap().values().forEach(
+        entry -> organizationNames.addAll(organizationNames(entry)));
+      zammadHandler.createMissingOrganizations(organizationNames, run.plan);
+    }
+
+    ZammadUserIndex index = zammadHandler.getZammadUserIndex();
+    long[] protectedMask = index.roleMask(config.getSyncProtectedRoleIds());
+
+    if (run.identityMap != null && !run.yielded)
+    {
+      findRenamedUsers(run.identityMap, index);
+    }
+
+    List<ZammadUser> pendingCreates = new ArrayList<>();
+
+    try (JavaScriptEngine js
+      = new JavaScriptEngine(config.getConfigPath()))
+    {
+      int noEntries = ldapHandler.getLdapEntryMap().size();
+      int entryCounter = 0;
+
+      for (Entry entry : ldapHandler.getLdapEntryMap().values())
+      {
+        checkpointSlices(run.slices, entryCounter, pendingCreates,
+          run.identityMap, run.journal);
+
+        if (run.yielded || System.currentTimeMillis() >= run.deadline)
+        {
+          LOGGER.warn("max-duration reached, {} of {} entries remaining",
+            noEntries - entryCounter, noEntries);
+          run.yielded = true;
+          break;
+        }
+
+        entryCounter++;
+        LOGGER.debug("{}/{}", entryCounter, noEntries);
+        String login = entry.getAttributeValue(config.getLdapUserId());
+        Date modifyTimestamp = LdapHandler.getModifyTimestamp(entry);
+        String fingerprint = LdapHandler.fingerprint(entry);
+        run.timestampUtil.entryProcessed(login, modifyTimestamp, fingerprint);
+
+        if (run.journal.isLoginCompleted(SyncJournal.PHASE_UPDATE, login)
+          && (modifyTimestamp == null || modifyTimestamp.getTime()
+          <= run.journal.getRunTimestamp().getTime()))
+        {
+          run.counters.skip++;
+          continue;
+        }
+
+        if (!run.fullSync
+          && !run.reconcileLogins.contains(ZammadUserIndex.normalize(login))
+          && run.timestampUtil.isUnchangedInOverlap(login, fingerprint)
+          && (run.groupResolver == null || !run.groupResolver.isChanged(entry)))
+        {
+          LOGGER.debug("unchanged in overlap window: {}", login);
+          run.counters.overlap++;
+          continue;
+        }
+
+        if (syncEntry(login, entry, js, index, protectedMask, run.identityMap,
+          run.groupResolver, run.plan, pendingCreates, run.counters))
+        {
+          run.journal.loginCompleted(SyncJournal.PHASE_UPDATE, login);
+        }
+      }
+
+      checkpointSlices(run.slices, entryCounter, pendingCreates,
+        run.identityMap, run.journal);
+    }
+
+    createPendingUsers(pendingCreates, run.identityMap, run.journal);
+
+    if (!run.yielded)
+    {
+      run.journal.phaseCompleted(SyncJournal.PHASE_UPDATE);
+    }
+  }
+
+  /**
+   * Waits for the bulk delete (anonymize) started by the delete phase.
+   */
+  private void completeBulkDelete(SyncRun run) throws Throwable
+  {
+    if (run.bulkDelete != null)
+    {
+      LOGGER.info("waiting for bulk delete (anonymize)");
+      List<String> deletedLogins = run.bulkDelete.block();
+      run.counters.delete += deletedLogins.size();
+
+      for (String login : deletedLogins)
+      {
+        run.journal.loginCompleted(SyncJournal.PHASE_DELETE, login);
+      }
+
+      if (run.identityMap != null)
+      {
+        Set<String> deleted = new HashSet<>(deletedLogins);
+        run.pendingDeletes.stream()
+          .filter(user -> deleted.contains(user.getLogin()))
+          .forEach(user -> run.identityMap.remove(user.getId()));
+      }
+
+      if (deletedLogins.size() < run.pendingDeletes.size()
+        && System.currentTimeMillis() >= run.deadline)
+      {
+        // no further request was started after the deadline
+        LOGGER.warn("max-duration reached, {} of {} deletes remaining",
+          run.pendingDeletes.size() - deletedLogins.size(),
+          run.pendingDeletes.size());
+        run.yielded = true;
+      }
+      else if (deletedLogins.size() < run.pendingDeletes.size())
+      {
+        // the journal is kept, a resumed sync retries the failed users
+        throw new IOException("bulk delete (anonymize) failed for "
+          + (run.pendingDeletes.size() - deletedLogins.size()) + " of "
+          + run.pendingDeletes.size() + " user(s)");
+      }
+      else
+      {
+        run.journal.phaseCompleted(SyncJournal.PHASE_DELETE);
+      }
+    }
+  }
+
+  /**
+   * FINALIZE, logs the summary, syncs the avatars and writes the sync
+   * state, or keeps the journal of a yielded sync.
+   */
+  private void finalizePhase(SyncRun run) throws Throwable
+  {
+    LOGGER.info("sync done\nSummary:"
+      + "\n  updated {} user(s)"
+      + "\n  created {} user(s)"
+      + "\n  renamed {} user(s)"
+      + "\n  deleted {} user(s)"
+      + "\n  ignored {} user(s)"
+      + "\n  skipped {} user(s) already done by interrupted sync"
+      + "\n  skipped {} unchanged user(s) in overlap window"
+      + "\n  skipped {} user(s) unchanged in zammad",
+      run.counters.update, run.counters.create, run.counters.rename,
+      run.counters.delete, run.counters.ignore, run.counters.skip,
+      run.counters.overlap, run.counters.unchanged);
+
+    ///////////////////////////////////////////////////////////////////////////
+    // AVATARS, separate pass, the plan does not contain avatars
+    if (config.isSyncAvatarEnabled() && run.plan == null && !run.yielded)
+    {
+      avatarHandler.syncAvatars(run.timestamp,
+        run.timestampUtil.getVarDirectory(), "zammad-users", !run.keepState);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    if (run.yielded)
+    {
+      if (!run.keepState && run.identityMap != null)
+      {
+        run.identityMap.write();
+      }
+
+      // the journal is the cursor of the next sync
+      run.journal.yielded();
+      LOGGER.info("sync stopped by max-duration, the next sync continues");
+    }
+    else if (!run.keepState)
+    {
+      run.timestampUtil.writeHighWaterMark(run.journal.getRunTimestamp());
+
+      if (run.identityMap != null)
+      {
+        run.identityMap.write();
+      }
+
+      if (run.groupResolver != null)
+      {
+        run.groupResolver.writeSnapshot(run.groupSnapshotFile);
+      }
+
+      if (run.ldapUids != null)
+      {
+        run.planner.writeLdapUids(run.ldapUids);
+      }
+
+      if (run.reconcileShards != null)
+      {
+        run.reconcileShards.writeNextShard();
+      }
+
+      run.journal.finish();
+    }
+  }
+
+  /**
+   * Creates the deferred new users, with the zammad CSV import if it is
+   * enabled and at least sync.bulk-import.threshold users are new.
+   */
+  private void createPendingUsers(List<ZammadUser> pendingCreates,
+    IdentityMap identityMap, SyncJournal journal) throws IOException
+  {
+    int threshold = config.getSyncBulkImportThreshold();
+
+    if (config.isSyncBulkImportEnabled() && threshold > 0
+      && pendingCreates.size() >= threshold)
+    {
+      LOGGER.info("bulk import of {} new user(s)", pendingCreates.size());
+      zammadHandler.importUsers(pendingCreates);
+    }
+    else
+    {
+      pendingCreates.forEach(user ->
+        user.setId(zammadHandler.createUser(user).getId()));
+    }
+
+    for (ZammadUser user : pendingCreates)
+    {
+      if (identityMap != null)
+      {
+        identityMap.put(ldapUuid(ldapHandler.getLdapEntryMap().get(
+          ZammadUserIndex.normalize(user.getLogin()))), user.getId(),
+          user.getLogin());
+      }
+
+      journal.loginCompleted(SyncJournal.PHASE_UPDATE, user.getLogin());
+    }
+
+    pendingCreates.clear();
+  }
+
+  /**
+   * Records the catch-up slices whose entries are all processed as
+   * checkpoints, the deferred new users are created first.
+   *
+   * @param processed number of processed entries of the entry map
+   */
+  private void checkpointSlices(Deque<LdapHandler.TimeSlice> slices,
+    int processed, List<ZammadUser> pendingCreates, IdentityMap identityMap,
+    SyncJournal journal) throws IOException
+  {
+    while (!slices.isEmpty() && slices.peekFirst().getEnd() != null
+      && slices.peekFirst().getEntryIndex() <= processed)
+    {
+      LdapHandler.TimeSlice slice = slices.pollFirst();
+      createPendingUsers(pendingCreates, identityMap, journal);
+      journal.sliceCompleted(slice.getEnd());
+      LOGGER.info("catch-up slice until {} done",
+        slice.getEnd().getStringRepresentation());
+    }
+  }
+
+  /**
+   * Syncs only the given logins: a targeted ldap search, a zammad user
+   * search and a script engine which is kept warm between the calls. Used
+   * by the sync-user command and the daemon.
+   *
+   * @return number of created, updated, ignored, unchanged and not found
+   * users
+   */
+  public synchronized Map<String, Integer> syncUsers(
+    Collection<String> logins, boolean dryRun) throws Throwable
+  {
+    boolean configDryRun = config.isDryRun();
+    config.setDryRun(dryRun);
+
+    try
+    {
+      return syncUsers(logins);
+    }
+    finally
+    {
+      config.setDryRun(configDryRun);
+    }
+  }
+
+  /**
+   * Syncs the given logins with the dry-run setting of the config, used
+   * by the daemon which must not change the shared config.
+   */
+  public synchronized Map<String, Integer> syncUsers(
+    Collection<String> logins) throws Throwable
+  {
+    long time = System.currentTimeMillis();
+    Counters counters = new Counters();
+
+    if (zammadHandler.getZammadRoleList() == null)
+    {
+      zammadHandler.readZammadRoles();
+    }
+
+    if (config.isSyncOrganizationsEnabled()
+      && zammadHandler.getZammadOrganizationMap() == null)
+    {
+      zammadHandler.readZammadOrganizations();
+    }
+
+    if (userScriptEngine == null)
+    {
+      userScriptEngine = new JavaScriptEngine(config.getConfigPath());
+    }
+
+    // reading all ldap groups is expensive, they are kept for a while
+    if (userGroupResolverTime == 0 || System.currentTimeMillis()
+      - userGroupResolverTime > config.getDaemonGroupCacheMinutes() * 60000L)
+    {
+      userGroupResolver = createGroupResolver();
+      userGroupResolverTime = System.currentTimeMillis();
+    }
+
+    GroupMembershipResolver groupResolver = userGroupResolver;
+    ldapHandler.readLdapEntries(logins);
+    zammadHandler.readZammadUsers(ldapHandler.getLdapEntryMap().keySet());
+
+    // renamed users are found by their mapped zammad id
+    IdentityMap identityMap = config.getLdapUserUuid().isBlank() ? null
+      : new IdentityMap(TimestampUtil.varDirectory(config.getConfigPath()),
+        "zammad-users");
+
+    ZammadUserIndex index = zammadHandler.getZammadUserIndex();
+    long[] protectedMask = index.roleMask(config.getSyncProtectedRoleIds());
+
+    if (identityMap != null)
+    {
+      findRenamedUsers(identityMap, index);
+    }
+
+    for (Entry entry : ldapHandler.getLdapEntryMap().values())
+    {
+      syncEntry(entry.getAttributeValue(config.getLdapUserId()), entry,
+        userScriptEngine, index, protectedMask, identityMap, groupResolver,
+        null, null, counters);
+    }
+
+    if (identityMap != null && !config.isDryRun())
+    {
+      identityMap.write();
+    }
+
+    Set<String> normalizedLogins = new HashSet<>();
+    logins.forEach(login -> normalizedLogins.add(
+      ZammadUserIndex.normalize(login)));
+    normalizedLogins.removeAll(ldapHandler.getLdapEntryMap().keySet());
+
+    Map<String, Integer> result = new LinkedHashMap<>();
+    result.put("created", counters.create);
+    result.put("updated", counters.update);
+    result.put("ignored", counters.ignore);
+    result.put("unchanged", counters.unchanged);
+    result.put("not_found", normalizedLogins.size());
+
+    LOGGER.info("sync-user {} done in {}ms: {}", logins,
+      System.currentTimeMillis() - time, result);
+
+    return result;
+  }
+
+  @PreDestroy
+  public void close()
+  {
+    if (userScriptEngine != null)
+    {
+      userScriptEngine.close();
+    }
+  }
+
+  /**
+   * Executes the operations of a plan file written by 'sync --plan' with
+   * sync.apply-concurrency parallel zammad requests, without reading ldap
+   * or zammad. Failed operations do not stop the other operations, they
+   * are reported when all operations are done.
+   */
+  public void apply(String planFile, boolean dryRun) throws Throwable
+  {
+    LOGGER.info("apply plan '{}', dry-run = '{}'", planFile, dryRun);
+    config.setDryRun(dryRun);
+
+    int concurrency = config.getSyncApplyConcurrency();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    // limits the operations read ahead of the running requests
+    Semaphore pending = new Semaphore(concurrency * 2);
+    AtomicInteger applied = new AtomicInteger();
+    List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    // the pool threads must not exit the jvm
+    boolean errorExitDisabled = config.isErrorExitDisabled();
+    config.setErrorExitDisabled(true);
+
+    try
+    {
+      int counter = SyncPlan.read(new File(planFile),
+        zammadJsonCodec.getObjectMapper(), operation ->
+      {
+        if (SyncPlan.OP_CREATE_ORGANIZATION.equals(operation.getOp()))
+        {
+          // before the users of the organization, which follow in the plan
+          createOrganization(operation.getName());
+          return;
+        }
+
+        pending.acquire();
+        executor.execute(() ->
+        {
+          try
+          {
+            if (applyOperation(operation))
+            {
+              applied.incrementAndGet();
+            }
+          }
+          catch (RuntimeException e)
+          {
+            failures.add(operation.getOp() + " " + operation.getLogin()
+              + ": " + e.getMessage());
+          }
+          finally
+          {
+            pending.release();
+          }
+        });
+      });
+
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      LOGGER.info("applied {} of {} operation(s), {} failed", applied.get(),
+        counter, failures.size());
+    }
+    finally
+    {
+      executor.shutdownNow();
+      config.setErrorExitDisabled(errorExitDisabled);
+    }
+
+    if (!failures.isEmpty())
+    {
+      failures.forEach(failure -> LOGGER.error("FAILED: {}", failure));
+      throw new IllegalStateException("*** APPLY FAILED *** "
+        + failures.size() + " operation(s) failed");
+    }
+  }
+
+  private void createOrganization(String name) throws IOException
+  {
+    if (zammadHandler.getZammadOrganizationMap() == null)
+    {
+      zammadHandler.readZammadOrganizations();
+    }
+
+    zammadHandler.resolveOrganizationId(name, null);
+  }
+
+  /**
+   * @return false if the operation is unknown
+   */
+  private boolean applyOperation(SyncPlan.Operation operation)
+  {
+    LOGGER.debug("{} {}", operation.getOp(), operation.getLogin());
+
+    if (SyncPlan.OP_CREATE.equals(operation.getOp()))
+    {
+      zammadHandler.createUser(operation.getUser());
+    }
+    else if (SyncPlan.OP_UPDATE.equals(operation.getOp()))
+    {
+      zammadHandler.updateUser(operation.getUser());
+    }
+    else if (SyncPlan.OP_ANONYMIZE.equals(operation.getOp()))
+    {
+      zammadHandler.deleteUser(operation.getUser());
+    }
+    else
+    {
+      LOGGER.warn("unknown plan operation '{}' for {}", operation.getOp(),
+        operation.getLogin());
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Looks up the mapped zammad users of ldap entries whose login is not
+   * in zammad. The delete phase may be done by an interrupted or yielded
+   * run, which kept the renamed user but not the rename candidate. A
+   * user is only taken as rename candidate if its login is still the one
+   * of the mapping and it is not anonymized.
+   */
+  private void findRenamedUsers(IdentityMap identityMap,
+    ZammadUserIndex index)
+  {
+    Map<Integer, String> mappedUuids = new HashMap<>();
+
+    for (Entry entry : ldapHandler.getLdapEntryMap().values())
+    {
+      String uuid = ldapUuid(entry);
+      Integer zammadId = identityMap.getZammadId(uuid);
+
+      if (zammadId != null && !identityMap.isRenamed(uuid)
+        && index.find(entry.getAttributeValue(config.getLdapUserId())) < 0)
+      {
+        mappedUuids.put(zammadId, uuid);
+      }
+    }
+
+    if (mappedUuids.isEmpty())
+    {
+      return;
+    }
+
+    for (ZammadUser user : zammadHandler.findManagedUsers(
+      mappedUuids.keySet()))
+    {
+      String uuid = mappedUuids.get(user.getId());
+      String login = identityMap.getLogin(uuid);
+
+      if (login == null || user.getLogin() == null
+        || !ZammadUserIndex.normalize(login).equals(
+          ZammadUserIndex.normalize(user.getLogin())))
+      {
+        LOGGER.debug("mapped zammad user {} has another login, "
+          + "no rename candidate", user.toStringShort());
+      }
+      else if (ZammadAnonymousUser.isAnonymized(user))
+      {
+        LOGGER.debug("mapped zammad user {} is anonymized, "
+          + "no rename candidate", user.toStringShort());
+      }
+      else
+      {
+        identityMap.addRenamedUser(uuid, user);
+      }
+    }
+  }
+
+  /**
+   * Creates or updates the zammad user of one ldap entry. A renamed user
+   * (see IdentityMap) is updated with the new login. New users are
+   * collected in pendingCreates if given (and no plan is written).
+   *
+   * @return false if the create is deferred to pendingCreates
+   */
+  private boolean syncEntry(String login, Entry entry, JavaScriptEngine js,
+    ZammadUserIndex index, long[] protectedMask, IdentityMap identityMap,
+    GroupMembershipResolver groupResolver, SyncPlan plan,
+    List<ZammadUser> pendingCreates, Counters counters) throws IOException
+  {
+    int zammadUserIndex = index.find(login);
+    String uuid = ldapUuid(entry);
+    ZammadUser renamedUser = null;
+
+    if (zammadUserIndex < 0 && identityMap != null)
+    {
+      renamedUser = identityMap.removeRenamedUser(uuid);
+    }
+    ArrayList<String> roles = new ArrayList<>();
+    ZammadUser updateUser = new ZammadUser();
+    updateUser.setLogin(login);
+    updateUser.setRoles(roles);
+
+    if (config.getSyncDefaultRoleId() != null)
+    {
+      String defaultRoleName =
+        zammadHandler.getZammadRoleMap().get(config.getSyncDefaultRoleId()).getName();
+
+      roles.add(defaultRoleName);
+    }
+
+    if (zammadUserIndex >= 0)
+    {
+      updateUser.setId(index.getId(zammadUserIndex));
+
+      if (identityMap != null)
+      {
+        identityMap.put(uuid, updateUser.getId(), login);
+      }
+
+      if (index.hasAnyRole(zammadUserIndex, protectedMask))
+      {
+        // IGNORE protected Users
+        LOGGER.warn("IGNORE UPDATE PROTECTED USER: {})",
+          index.getUser(zammadUserIndex).toStringShort());
+        counters.ignore++;
+      }
+      else
+      {
+        // UPDATE
+        keepUntaggedRoles(index.getRoleIds(zammadUserIndex), roles);
+        js.getValue().executeVoid("update", updateUser, entry, config);
+        stampSourceMarker(updateUser, index.getSource(zammadUserIndex));
+        assignOrganizations(updateUser, entry, plan);
+        applyGroupMapping(updateUser, entry, groupResolver);
+
+        if (config.isSyncSkipUnchangedUsers()
+          && (groupResolver == null || !groupResolver.isChanged(entry))
+          && index.isFingerprinted(updateUser)
+          && index.fingerprint(updateUser)
+          == index.getFingerprint(zammadUserIndex))
+        {
+          LOGGER.debug("unchanged in zammad: {}", login);
+          counters.unchanged++;
+        }
+        else
+        {
+          if (plan != null)
+          {
+            plan.update(updateUser);
+          }
+          else
+          {
+            zammadHandler.updateUser(updateUser);
+          }
+
+          counters.update++;
+        }
+      }
+    }
+    else if (renamedUser != null)
+    {
+      // RENAME, update the zammad user of the old login
+      LOGGER.info("RENAME: {} -> {}", renamedUser.getLogin(), login);
+      updateUser.setId(renamedUser.getId());
+      identityMap.put(uuid, renamedUser.getId(), login);
+      keepUntaggedRoles(renamedUser.getRole_ids(), roles);
+      js.getValue().executeVoid("update", updateUser, entry, config);
+      stampSourceMarker(updateUser, renamedUser.getSource());
+      assignOrganizations(updateUser, entry, plan);
+      applyGroupMapping(updateUser, entry, groupResolver);
+
+      if (plan != null)
+      {
+        plan.update(updateUser);
+      }
+      else
+      {
+        zammadHandler.updateUser(updateUser);
+      }
+
+      counters.rename++;
+    }
+    else
+    {
+      // CREATE
+      js.getValue().executeVoid("create", updateUser, entry, config);
+      stampSourceMarker(updateUser, null);
+      assignOrganizations(updateUser, entry, plan);
+      applyGroupMapping(updateUser, entry, groupResolver);
+
+      counters.create++;
+
+      if (plan != null)
+      {
+        plan.create(updateUser);
+      }
+      else if (pendingCreates != null)
+      {
+        pendingCreates.add(updateUser);
+        return false;
+      }
+      else
+      {
+        ZammadUser createdUser = zammadHandler.createUser(updateUser);
+
+        if (identityMap != null)
+        {
+          identityMap.put(uuid, createdUser.getId(), login);
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Keeps the zammad roles of a user which are not managed by the sync
+   * (sync.remove-tagged-roles-befor-update-user).
+   */
+  private void keepUntaggedRoles(List<Integer> roleIds, List<String> roles)
+  {
+    if (roleIds != null && config.isSyncTagSyncerRolesEnabled()
+      && config.isSyncRemoveTaggedRolesBeforUpdateUser())
+    {
+      roleIds.forEach(roleId ->
+      {
+        String roleName
+          = zammadHandler.getZammadRoleMap().get(roleId).getName();
+
+        if (!roleId.equals(config.getSyncDefaultRoleId())
+          && !roleName.startsWith(config.getSyncRolesTag()))
+        {
+          roles.add(roleName);
+        }
+      });
+    }
+  }
+
+  /**
+   * Reads the group mapping and the ldap and zammad groups, null if
+   * sync.group-mapping.enabled is false.
+   */
+  private GroupMembershipResolver createGroupResolver() throws Throwable
+  {
+    GroupMembershipResolver resolver = null;
+
+    if (config.isSyncGroupMappingEnabled())
+    {
+      GroupMapping mapping = GroupMapping.load(new File(
+        config.getConfigPath() + config.getSyncGroupMappingFile()));
+      resolver = new GroupMembershipResolver(mapping,
+        config.isSyncGroupMappingMemberOf());
+
+      if (!config.isSyncGroupMappingMemberOf())
+      {
+        ldapHandler.forEachGroup(resolver::addGroup);
+        resolver.resolve();
+      }
+
+      zammadHandler.readZammadGroups();
+    }
+
+    return resolver;
+  }
+
+  /**
+   * Adds the roles and zammad group access of the matching group mapping
+   * rules. The group access of users in mapped groups is replaced, users
+   * who left all mapped groups lose it.
+   */
+  private void applyGroupMapping(ZammadUser user, Entry entry,
+    GroupMembershipResolver groupResolver)
+  {
+    if (groupResolver == null)
+    {
+      return;
+    }
+
+    List<GroupMapping.Rule> rules = groupResolver.rulesOf(entry);
+    Map<String, String[]> groupIds = new LinkedHashMap<>();
+
+    for (GroupMapping.Rule rule : rules)
+    {
+      if (rule.getRoles() != null)
+      {
+        rule.getRoles().stream()
+          .filter(role -> !user.getRoles().contains(role))
+          .forEach(user.getRoles()::add);
+      }
+
+      if (rule.getGroups() != null)
+      {
+        rule.getGroups().forEach((groupName, access) ->
+        {
+          Integer groupId = zammadHandler.getZammadGroupId(groupName);
+
+          if (groupId == null)
+          {
+            LOGGER.warn("UNKNOWN ZAMMAD GROUP: {}", groupName);
+            return;
+          }
+
+          Set<String> accessSet = new LinkedHashSet<>(access);
+          String[] current = groupIds.get(groupId.toString());
+
+          if (current != null)
+          {
+            accessSet.addAll(Arrays.asList(current));
+          }
+
+          groupIds.put(groupId.toString(), accessSet.toArray(String[]::new));
+        });
+      }
+    }
+
+    if (!rules.isEmpty() || groupResolver.isChanged(entry))
+    {
+      user.setGroup_ids(groupIds);
+    }
+  }
+
+  /**
+   * Replaces the organization names of the user by organization ids
+   * (sync.organizations.enabled). Names from ldap take precedence over a
+   * name set by the mapping script, unknown names are not assigned.
+   */
+  private void assignOrganizations(ZammadUser user, Entry entry,
+    SyncPlan plan) throws IOException
+  {
+    if (!config.isSyncOrganizationsEnabled())
+    {
+      return;
+    }
+
+    List<String> names = organizationNames(entry);
+
+    if (names.isEmpty() && user.getOrganization() != null)
+    {
+      names = List.of(user.getOrganization());
+    }
+
+    List<Integer> organizationIds = new ArrayList<>();
+    List<String> organizationNames = new ArrayList<>();
+    boolean planned = false;
+
+    for (String name : names)
+    {
+      Integer organizationId = zammadHandler.resolveOrganizationId(name, plan);
+
+      if (organizationId != null && !organizationIds.contains(organizationId))
+      {
+        organizationIds.add(organizationId);
+        organizationNames.add(name.trim());
+      }
+      else if (organizationId == null
+        && zammadHandler.isPlannedOrganization(name))
+      {
+        planned = true;
+        organizationNames.add(name.trim());
+      }
+    }
+
+    user.setOrganization(null);
+
+    if (planned)
+    {
+      // the organization is created by apply, zammad resolves the names
+      user.setOrganization(organizationNames.get(0));
+
+      if (organizationNames.size() > 1)
+      {
+        user.setOrganizations(new ArrayList<>(
+          organizationNames.subList(1, organizationNames.size())));
+      }
+    }
+    else if (!organizationIds.isEmpty())
+    {
+      user.setOrganization_id(organizationIds.get(0));
+
+      if (organizationIds.size() > 1)
+      {
+        user.setOrganization_ids(
+          new ArrayList<>(organizationIds.subList(1, organizationIds.size())));
+      }
+    }
+  }
+
+  /**
+   * @return the organization names of the ldap entry, read from the
+   * sync.organizations.attributes and the first ou of the dn
+   */
+  private List<String> organizationNames(Entry entry)
+  {
+    List<String> names = new ArrayList<>();
+
+    for (String attributeName : config.getSyncOrganizationsAttributes())
+    {
+      String[] values = entry.getAttributeValues(attributeName);
+
+      if (values != null)
+      {
+        for (String value : values)
+        {
+          if (!value.isBlank())
+          {
+            names.add(value.trim());
+          }
+        }
+      }
+    }
+
+    if (config.isSyncOrganizationsFromDn())
+    {
+      try
+      {
+        for (RDN rdn : entry.getParsedDN().getRDNs())
+        {
+          if (rdn.hasAttribute("ou"))
+          {
+            names.add(rdn.getAttributeValues()[0]);
+            break;
+          }
+        }
+      }
+      catch (LDAPException e)
+      {
+        LOGGER.warn("invalid dn: {}", entry.getDN());
+      }
+    }
+
+    return names;
+  }
+
+  /**
+   * @return the immutable ldap uuid (ldap.user.uuid) of the entry or null
+   */
+  private String ldapUuid(Entry entry)
+  {
+    return (entry != null && !config.getLdapUserUuid().isBlank())
+      ? entry.getAttributeValue(config.getLdapUserUuid()) : null;
+  }
+
+  private void collectDelete(ZammadUser user, boolean hasProtectedRole,
+    SyncJournal journal, IdentityMap identityMap,
+    List<ZammadUser> pendingDeletes, Counters counters)
+  {
+    if (!zammadHandler.isManagedUser(user))
+    {
+      return;
+    }
+
+    if (journal.isLoginCompleted(SyncJournal.PHASE_DELETE, user.getLogin()))
+    {
+      counters.skip++;
+    }
+    else if (user.getId() == 1 || hasProtectedRole)
+    {
+      // IGNORE protected Users
+      LOGGER.warn("IGNORE DELETE PROTECTED USER: {}", user.toStringShort());
+      counters.ignore++;
+    }
+    else if (identityMap != null && identityMap.detectRename(user))
+    {
+      // RENAME, done by the update phase
+      LOGGER.debug("renamed, not deleted: {}", user.getLogin());
+    }
+    else
+    {
+      pendingDeletes.add(user);
+    }
+  }
+
+  /**
+   * Deletes (anonymizes) the collected users if the mass delete guard
+   * allows it. With sync.bulk-delete.enabled the requests run in the
+   * background while the update phase continues. No further user is
+   * deleted after the deadline, the remaining users are left to the next
+   * sync.
+   *
+   * @return the running bulk delete or null if all deletes are done or
+   * the deadline is reached
+   */
+  private Mono<List<String>> deleteUsers(List<ZammadUser> users,
+    int zammadUserCount, long deadline, SyncJournal journal,
+    IdentityMap identityMap, SyncPlan plan, Counters counters)
+    throws IOException
+  {
+    checkMassDeleteGuard(users.size(), zammadUserCount);
+
+    if (plan == null && !config.isDryRun() && !users.isEmpty()
+      && config.isSyncBulkDeleteEnabled())
+    {
+      LOGGER.info("bulk delete (anonymize) of {} user(s) started",
+        users.size());
+      return zammadHandler.anonymizeUsers(users, deadline);
+    }
+
+    int deleteCounter = 0;
+
+    for (ZammadUser user : users)
+    {
+      if (System.currentTimeMillis() >= deadline)
+      {
+        LOGGER.warn("max-duration reached, {} of {} deletes remaining",
+          users.size() - deleteCounter, users.size());
+        break;
+      }
+
+      deleteCounter++;
+      counters.delete++;
+
+      // DELETE
+      if (plan != null)
+      {
+        plan.anonymize(user);
+      }
+      else
+      {
+        zammadHandler.deleteUser(user);
+
+        if (identityMap != null && !config.isDryRun())
+        {
+          identityMap.remove(user.getId());
+        }
+      }
+
+      journal.loginCompleted(SyncJournal.PHASE_DELETE, user.getLogin());
+    }
+
+    return null;
+  }
+
+  /**
+   * Aborts the sync if more than sync.mass-delete-guard.max-percent of the
+   * zammad users would be deleted, e.g. after an accidental directory wipe
+   * or a broken ldap filter. Overridden by sync --force-deletes.
+   */
+  private void checkMassDeleteGuard(int deletes, int zammadUserCount)
+  {
+    int maxPercent = config.getSyncMassDeleteGuardMaxPercent();
+
+    if (maxPercent <= 0
+      || deletes < config.getSyncMassDeleteGuardMinDeletes())
+    {
+      return;
+    }
+
+    long percent = (zammadUserCount > 0)
+      ? deletes * 100l / zammadUserCount : 100;
+
+    if (percent > maxPercent)
+    {
+      String message = "mass delete guard: " + deletes + " of "
+        + zammadUserCount + " zammad user(s) (" + percent
+        + "%) would be deleted, limit is " + maxPercent + "%";
+
+      if (config.isDryRun())
+      {
+        LOGGER.warn("{} - ignored by dry run", message);
+      }
+      else if (config.isForceDeletes())
+      {
+        LOGGER.warn("{} - overridden by --force-deletes", message);
+      }
+      else
+      {
+        throw new IllegalStateException(message
+          + ", use --force-deletes to delete them anyway");
+      }
+    }
+  }
+
+  /**
+   * Sets the source marker on created users and on adopted users (without
+   * the marker), an update of a managed user does not send it again.
+   *
+   * @param source the source of the zammad user, null for a new user
+   */
+  private void stampSourceMarker(ZammadUser user, String source)
+  {
+    if (config.getSyncSourceMarker() != null
+      && !config.getSyncSourceMarker().isBlank()
+      && !config.getSyncSourceMarker().equals(source))
+    {
+      user.setSource(config.getSyncSourceMarker());
+    }
+  }
+
+  /**
+   * state of one sync run, shared by the phases of runSync
+   */
+  private static class SyncRun
+  {
+    private boolean fullSync;
+
+    private boolean keepState;
+
+    private long deadline;
+
+    private boolean yielded;
+
+    private final Counters counters = new Counters();
+
+    private TimestampUtil timestampUtil;
+
+    private SyncJournal journal;
+
+    private SortedSpool ldapUidSpool;
+
+    private SyncPlan plan;
+
+    private SyncPlanner planner;
+
+    private IdentityMap identityMap;
+
+    private ASN1GeneralizedTime timestamp;
+
+    private final Deque<LdapHandler.TimeSlice> slices = new ArrayDeque<>();
+
+    private ReconcileShards reconcileShards;
+
+    private final Set<String> reconcileLogins = new HashSet<>();
+
+    private GroupMembershipResolver groupResolver;
+
+    private File groupSnapshotFile;
+
+    /**
+     * ldap uids of this sync, written for the next delta, null if unknown
+     */
+    private Iterable<String> ldapUids;
+
+    private boolean deltaUsersResolved;
+
+    private final List<ZammadUser> pendingDeletes = new ArrayList<>();
+
+    private Mono<List<String>> bulkDelete;
+  }
+
+  private static class Counters
+  {
+    private int update;
+
+    private int create;
+
+    private int rename;
+
+    private int delete;
+
+    private int ignore;
+
+    private int skip;
+
+    private int overlap;
+
+    private int unchanged;
+  }
+
+  /**
+   * script engine of syncUsers, kept between the calls
+   */
+  private JavaScriptEngine userScriptEngine;
+
+  /**
+   * group resolver of syncUsers, kept for daemon.group-cache-minutes
+   */
+  private GroupMembershipResolver userGroupResolver;
+
+  private long userGroupResolverTime;
+}
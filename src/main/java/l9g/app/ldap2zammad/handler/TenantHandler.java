@@ -0,0 +1,262 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.handler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import l9g.app.ldap2zammad.Application;
+import l9g.app.ldap2zammad.BatchApplication;
+import l9g.app.ldap2zammad.Config;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the sync profiles (tenants.profiles) of one process in parallel.
+ *
+ * Every profile gets its own application context, so it has its own
+ * Config, ldap and zammad handlers and state. The context reads
+ * data/application.yaml and the application.yaml of the profile directory,
+ * which overrides the shared settings (ldap and zammad servers, sync
+ * options). The mapping script, the group mapping and the var directory
+ * are read from the profile directory. The contexts are created by the
+ * first sync of a profile and kept for the next runs.
+ *
+ * All profiles share one thread pool of tenants.max-parallel threads, a
+ * profile whose turn comes while all threads are busy waits.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@Component
+public class TenantHandler
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(TenantHandler.class);
+
+  private final static String PROFILES_PROPERTY = "tenants.profiles";
+
+  private final static String TENANTS_DIRECTORY
+    = Application.CONFIG_PATH + "tenants" + File.separator;
+
+  @Autowired
+  private Config config;
+
+  @Autowired
+  private Environment environment;
+
+  @Bean
+  public TenantHandler tenantHandlerBean()
+  {
+    LOGGER.debug("getTenantHandler");
+    return this;
+  }
+
+  /**
+   * Syncs all profiles. Profiles with an interval are synced again after
+   * each interval until the jvm is stopped, otherwise the method returns
+   * when every profile was synced once.
+   *
+   * @return the number of failed syncs
+   */
+  public int run(boolean fullSync, boolean dryRun) throws Throwable
+  {
+    Map<String, Profile> profiles = Binder.get(environment)
+      .bind(PROFILES_PROPERTY, Bindable.mapOf(String.class, Profile.class))
+      .orElseThrow(() -> new IllegalStateException(
+      "no sync profiles configured (" + PROFILES_PROPERTY + ")"));
+
+    int maxParallel = Math.max(1, config.getTenantsMaxParallel());
+    LOGGER.info("running {} sync profile(s), max. {} in parallel",
+      profiles.size(), maxParallel);
+
+    ScheduledExecutorService executor
+      = Executors.newScheduledThreadPool(maxParallel);
+    List<Tenant> tenants = new ArrayList<>();
+    List<ScheduledFuture<?>> runOnce = new ArrayList<>();
+
+    try
+    {
+      profiles.forEach((name, profile) ->
+      {
+        Tenant tenant = new Tenant(name, profile, fullSync, dryRun);
+        tenants.add(tenant);
+
+        if (profile.getIntervalMinutes() > 0)
+        {
+          executor.scheduleWithFixedDelay(tenant::sync, 0,
+            profile.getIntervalMinutes(), TimeUnit.MINUTES);
+        }
+        else
+        {
+          runOnce.add(executor.schedule(tenant::sync, 0, TimeUnit.SECONDS));
+        }
+      });
+
+      if (runOnce.size() < tenants.size())
+      {
+        // periodic profiles run until the jvm is stopped
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+      }
+
+      for (ScheduledFuture<?> future : runOnce)
+      {
+        future.get();
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+      tenants.forEach(Tenant::close);
+    }
+
+    int failed = tenants.stream().mapToInt(Tenant::getFailed).sum();
+    LOGGER.info("sync profiles done, {} failed sync(s)", failed);
+    return failed;
+  }
+
+  /**
+   * A sync profile, tenants.profiles.{name}.
+   */
+  @ToString
+  @Getter
+  @Setter
+  public static class Profile
+  {
+    /**
+     * default data/tenants/{name}
+     */
+    private String directory;
+
+    /**
+     * minutes between the end of a sync and the next delta sync,
+     * 0 = sync once
+     */
+    private int intervalMinutes;
+
+    /**
+     * time budget of a sync, see sync --max-duration
+     */
+    private String maxDuration;
+  }
+
+  private class Tenant
+  {
+    Tenant(String name, Profile profile, boolean fullSync, boolean dryRun)
+    {
+      this.name = name;
+      this.fullSync = fullSync;
+      this.dryRun = dryRun;
+      maxDuration = profile.getMaxDuration();
+
+      String path = (profile.getDirectory() == null
+        || profile.getDirectory().isBlank())
+        ? TENANTS_DIRECTORY + name : profile.getDirectory();
+      directory = path.endsWith(File.separator) || path.endsWith("/")
+        ? path : path + File.separator;
+    }
+
+    /**
+     * Never throws, an exception would cancel the periodic runs.
+     */
+    void sync()
+    {
+      Thread thread = Thread.currentThread();
+      String threadName = thread.getName();
+      thread.setName("tenant-" + name);
+
+      try
+      {
+        if (context == null)
+        {
+          LOGGER.info("starting sync profile '{}' ({})", name, directory);
+          context = createContext();
+        }
+
+        context.getBean("syncHandler", SyncHandler.class).sync(
+          fullSync, dryRun, false, false, false, null, maxDuration);
+
+        // only the first run of a periodic profile is a full sync
+        fullSync = false;
+      }
+      catch (Throwable t)
+      {
+        LOGGER.error("sync profile '{}' failed", name, t);
+        failed++;
+      }
+      finally
+      {
+        thread.setName(threadName);
+      }
+    }
+
+    private ConfigurableApplicationContext createContext()
+    {
+      SpringApplication application
+        = new SpringApplication(BatchApplication.class);
+      application.setWebApplicationType(WebApplicationType.NONE);
+      application.setLazyInitialization(true);
+      application.setBannerMode(Banner.Mode.OFF);
+      application.setLogStartupInfo(false);
+      application.setRegisterShutdownHook(false);
+      application.setDefaultProperties(Map.of(
+        "spring.config.additional-location", "optional:file:" + directory,
+        "tenant.name", name,
+        "tenant.config-path", directory));
+      return application.run();
+    }
+
+    void close()
+    {
+      if (context != null)
+      {
+        context.close();
+      }
+    }
+
+    private final String name;
+
+    private final String directory;
+
+    private final boolean dryRun;
+
+    private final String maxDuration;
+
+    private boolean fullSync;
+
+    private ConfigurableApplicationContext context;
+
+    @Getter
+    private int failed;
+  }
+}
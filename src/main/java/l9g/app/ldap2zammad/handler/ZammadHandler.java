@@ -15,22 +15,47 @@
  */
 package l9g.app.ldap2zammad.handler;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 import l9g.app.ldap2zammad.Config;
+import l9g.app.ldap2zammad.SyncPlan;
+import l9g.app.ldap2zammad.ZammadUserCache;
+import l9g.app.ldap2zammad.engine.ZammadUserIndex;
 import l9g.app.ldap2zammad.model.ZammadAnonymousUser;
+import l9g.app.ldap2zammad.model.ZammadAvatar;
+import l9g.app.ldap2zammad.model.ZammadGroup;
+import l9g.app.ldap2zammad.model.ZammadImportResult;
+import l9g.app.ldap2zammad.model.ZammadOrganization;
 import l9g.app.ldap2zammad.model.ZammadRole;
 import l9g.app.ldap2zammad.model.ZammadUser;
+import l9g.app.ldap2zammad.model.ZammadUserProjection;
 import l9g.app.ldap2zammad.zammad.ZammadClient;
+import l9g.app.ldap2zammad.zammad.ZammadJsonCodec;
+import l9g.app.ldap2zammad.zammad.ZammadUserCsv;
 import lombok.Getter;
+import lombok.Setter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  *
@@ -48,6 +73,9 @@ public class ZammadHandler
   @Autowired
   private ZammadClient zammadClient;
 
+  @Autowired
+  private ZammadJsonCodec zammadJsonCodec;
+
   @Bean
   public ZammadHandler zammadHandlerBean()
   {
@@ -56,6 +84,12 @@ public class ZammadHandler
   }
 
   public void readZammadRolesAndUsers()
+  {
+    readZammadRoles();
+    readZammadUsers();
+  }
+
+  public void readZammadRoles()
   {
     LOGGER.debug("readZammadRoles");
     
@@ -71,22 +105,462 @@ public class ZammadHandler
     zammadRoleMap.clear();
     zammadRoleList.forEach(role -> zammadRoleMap.put(role.getId(), role));
     LOGGER.info("loaded {} zammad roles", zammadRoleList.size());
-    
-    LOGGER.debug("readZammadUsers");
-    zammadUsersList = new ArrayList<>();
-    List<ZammadUser> usersResult;
-    page = 1;
-    while((usersResult = zammadClient.users(page, 100)) != null
-      && !usersResult.isEmpty())
+  }
+
+  public void readZammadGroups()
+  {
+    LOGGER.debug("readZammadGroups");
+
+    zammadGroupMap.clear();
+    List<ZammadGroup> groups = zammadClient.groups();
+
+    if (groups != null)
+    {
+      groups.forEach(group -> zammadGroupMap.put(
+        group.getName().trim().toLowerCase(), group));
+    }
+    LOGGER.info("loaded {} zammad groups", zammadGroupMap.size());
+  }
+
+  /**
+   * @return the id of the zammad group (name compared case insensitive)
+   * or null if unknown
+   */
+  public Integer getZammadGroupId(String name)
+  {
+    ZammadGroup group = zammadGroupMap.get(name.trim().toLowerCase());
+    return (group != null) ? group.getId() : null;
+  }
+
+  public void readZammadOrganizations()
+  {
+    LOGGER.debug("readZammadOrganizations");
+
+    zammadOrganizationMap = new HashMap<>();
+    plannedOrganizationNames.clear();
+    List<ZammadOrganization> organizationsResult;
+    int page = 1;
+    while ((organizationsResult = zammadClient.organizations(page, 100)) != null
+      && !organizationsResult.isEmpty())
     {
-      zammadUsersList.addAll(usersResult);
+      organizationsResult.forEach(organization -> zammadOrganizationMap.put(
+        normalizeOrganizationName(organization.getName()), organization));
       page++;
     }
-    
-    zammadUsersMap.clear();
-    zammadUsersList.forEach(user -> zammadUsersMap.put(user.getLogin(), user));
+    LOGGER.info("loaded {} zammad organizations",
+      zammadOrganizationMap.size());
+  }
+
+  /**
+   * Creates the organizations of the given names which do not exist in
+   * zammad (sync.organizations.create-missing), names are compared case
+   * insensitive.
+   */
+  public void createMissingOrganizations(Collection<String> names,
+    SyncPlan plan) throws IOException
+  {
+    for (String name : names)
+    {
+      if (name != null && !name.isBlank()
+        && !zammadOrganizationMap.containsKey(normalizeOrganizationName(name)))
+      {
+        createOrganization(name.trim(), plan);
+      }
+    }
+  }
+
+  /**
+   * @param plan if not null, missing organizations are written to the plan
+   * instead of zammad
+   * @return the id of the zammad organization, missing organizations are
+   * created if allowed, null if unknown or planned
+   */
+  public Integer resolveOrganizationId(String name, SyncPlan plan)
+    throws IOException
+  {
+    if (name == null || name.isBlank())
+    {
+      return null;
+    }
+
+    ZammadOrganization organization
+      = zammadOrganizationMap.get(normalizeOrganizationName(name));
+
+    if (organization == null)
+    {
+      organization = createOrganization(name.trim(), plan);
+    }
+
+    return (organization != null) ? organization.getId() : null;
+  }
+
+  /**
+   * @return true if the organization is written to the plan, users refer
+   * to it by name
+   */
+  public boolean isPlannedOrganization(String name)
+  {
+    return name != null
+      && plannedOrganizationNames.contains(normalizeOrganizationName(name));
+  }
+
+  private ZammadOrganization createOrganization(String name, SyncPlan plan)
+    throws IOException
+  {
+    ZammadOrganization organization = null;
+
+    if (!config.isSyncOrganizationsCreateMissing())
+    {
+      if (unknownOrganizationNames.add(normalizeOrganizationName(name)))
+      {
+        LOGGER.warn("UNKNOWN ORGANIZATION: {}", name);
+      }
+    }
+    else if (config.isDryRun())
+    {
+      LOGGER.info("CREATE ORGANIZATION DRY RUN: {}", name);
+    }
+    else if (plan != null)
+    {
+      if (plannedOrganizationNames.add(normalizeOrganizationName(name)))
+      {
+        LOGGER.info("CREATE ORGANIZATION PLANNED: {}", name);
+        plan.createOrganization(name);
+      }
+    }
+    else
+    {
+      LOGGER.info("CREATE ORGANIZATION: {}", name);
+      organization = new ZammadOrganization();
+      organization.setName(name);
+      organization.setActive(true);
+
+      try
+      {
+        organization = zammadClient.organizationsCreate(organization);
+        zammadOrganizationMap.put(normalizeOrganizationName(name),
+          organization);
+      }
+      catch (Throwable t)
+      {
+        delayedErrorExit("*** CREATE ORGANIZATION FAILED *** "
+          + t.getMessage());
+      }
+    }
+
+    return organization;
+  }
+
+  private static String normalizeOrganizationName(String name)
+  {
+    return name.trim().toLowerCase();
+  }
+
+  public void readZammadUsers()
+  {
+    LOGGER.debug("readZammadUsers");
+    zammadUserIndex = new ZammadUserIndex(zammadRoleList,
+      config.isSyncOrganizationsEnabled());
+
+    boolean allUsersFromCache = userCache != null && userCache.load();
+    List<ZammadUser> cacheUsers = new ArrayList<>();
+
+    if (allUsersFromCache)
+    {
+      refreshZammadUserCache();
+      zammadUserIndex.addAll(userCache.getUsers());
+    }
+    else
+    {
+      // with managed-users-only, only users stamped with the source marker
+      String query = config.isSyncManagedUsersOnly()
+        ? managedUsersQuery() : null;
+      LOGGER.debug("readZammadUsers query={}", query);
+
+      for (ZammadUser user : pagedUsers(query, "id"))
+      {
+        zammadUserIndex.add(user);
+
+        if (userCache != null)
+        {
+          cacheUsers.add(user);
+        }
+      }
+    }
+
+    if (userCache != null)
+    {
+      if (!allUsersFromCache)
+      {
+        userCache.replaceAll(cacheUsers);
+        saveZammadUserCache();
+      }
+
+      // the index holds everything needed for the sync
+      userCache.clear();
+    }
+
+    allUsersLoaded = true;
+
+    LOGGER.info("loaded {} zammad users", zammadUserIndex.size());
+  }
+
+  /**
+   * Streams all (managed) zammad users page by page without keeping them
+   * in memory.
+   *
+   * @return number of zammad users
+   */
+  public int forEachZammadUser(String sortBy, ZammadUserCallback callback)
+    throws Throwable
+  {
+    LOGGER.debug("forEachZammadUser sortBy={}", sortBy);
+    String query = config.isSyncManagedUsersOnly() ? managedUsersQuery() : null;
+    int counter = 0;
+
+    for (ZammadUser user : pagedUsers(query, sortBy))
+    {
+      callback.user(user);
+      counter++;
+    }
+
+    LOGGER.info("streamed {} zammad users", counter);
+    return counter;
+  }
+
+  /**
+   * All zammad users matching the search query (or all users if query is
+   * null) in ascending sortBy order. Pages are requested lazily while
+   * iterating, each page is decoded as a stream of user projections.
+   */
+  private Iterable<ZammadUser> pagedUsers(String query, String sortBy)
+  {
+    int perPage = config.getZammadUsersPerPage();
+
+    return () -> new PagedUsersIterator(page -> (query != null)
+      ? zammadClient.usersSearchStream(query, sortBy, "asc", page, perPage)
+      : zammadClient.usersStream(page, perPage, sortBy, "asc"));
+  }
+
+  /**
+   * Replaces the loaded zammad users by the users resolved through a
+   * merge join. The users are reduced to the merge join records, so
+   * their updates are not skipped by sync.skip-unchanged-users.
+   */
+  public void setZammadUsers(Collection<ZammadUser> users)
+  {
+    zammadUserIndex = new ZammadUserIndex(zammadRoleList,
+      config.isSyncOrganizationsEnabled());
+    zammadUserIndex.setPartialUsers();
+    zammadUserIndex.addAll(users);
+    allUsersLoaded = false;
+  }
+
+  /**
+   * Fetches all users updated since the newest cached user, sorted by
+   * updated_at. Needs the zammad elasticsearch index.
+   */
+  private void refreshZammadUserCache()
+  {
+    String query = "updated_at:[" + quote(DateTimeFormatter.ISO_INSTANT
+      .format(userCache.getUpdatedAt().toInstant())) + " TO *]";
+
+    if (config.isSyncManagedUsersOnly())
+    {
+      query = managedUsersQuery() + " AND " + query;
+    }
+
+    LOGGER.debug("refreshZammadUserCache query={}", query);
+
+    int counter = 0;
+
+    for (ZammadUser user : pagedUsers(query, "updated_at"))
+    {
+      userCache.put(user);
+      counter++;
+    }
+
+    LOGGER.info("refreshed {} zammad users in cache", counter);
+
+    if (counter > 0)
+    {
+      saveZammadUserCache();
+    }
+  }
+
+  private void saveZammadUserCache()
+  {
+    if (config.isKeepState())
+    {
+      LOGGER.debug("dry-run or plan, zammad user cache not saved");
+      return;
+    }
+
+    try
+    {
+      userCache.save();
+    }
+    catch (IOException e)
+    {
+      LOGGER.warn("saving zammad user cache failed: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Loads only the zammad users with the given logins. The logins are
+   * looked up with the user search endpoint, combined to OR queries of
+   * sync.lookup.batch-size logins.
+   */
+  public void readZammadUsers(Collection<String> logins)
+  {
+    LOGGER.debug("readZammadUsers({})", logins.size());
+    zammadUserIndex = new ZammadUserIndex(zammadRoleList,
+      config.isSyncOrganizationsEnabled());
+    allUsersLoaded = false;
+    lookupZammadUsers(logins);
+  }
+
+  /**
+   * Looks up the given logins and adds the found users to the already
+   * loaded zammad users.
+   */
+  public void lookupZammadUsers(Collection<String> logins)
+  {
+    int size = zammadUserIndex.size();
+    List<String> batch = new ArrayList<>();
+
+    for (String login : logins)
+    {
+      batch.add(ZammadUserIndex.normalize(login));
+
+      if (batch.size() >= config.getSyncLookupBatchSize())
+      {
+        searchZammadUsers(batch);
+        batch.clear();
+      }
+    }
+
+    if (!batch.isEmpty())
+    {
+      searchZammadUsers(batch);
+    }
+
+    LOGGER.info("looked up {} of {} zammad users",
+      zammadUserIndex.size() - size, logins.size());
+  }
+
+  /**
+   * Looks up the zammad users with the given ids, combined to OR queries
+   * of sync.lookup.batch-size ids.
+   *
+   * @return the existing managed users
+   */
+  public List<ZammadUser> findManagedUsers(Collection<Integer> ids)
+  {
+    List<ZammadUser> users = new ArrayList<>();
+    List<Integer> batch = new ArrayList<>();
+
+    for (Integer id : ids)
+    {
+      batch.add(id);
+
+      if (batch.size() >= config.getSyncLookupBatchSize())
+      {
+        searchZammadUsersById(batch, users);
+        batch.clear();
+      }
+    }
+
+    if (!batch.isEmpty())
+    {
+      searchZammadUsersById(batch, users);
+    }
+
+    LOGGER.debug("found {} of {} zammad users by id", users.size(),
+      ids.size());
+    return users;
+  }
+
+  private void searchZammadUsersById(List<Integer> ids,
+    List<ZammadUser> users)
+  {
+    StringBuilder search = new StringBuilder("(");
+
+    for (Integer id : ids)
+    {
+      if (search.length() > 1)
+      {
+        search.append(" OR ");
+      }
+
+      search.append(id);
+    }
+
+    search.append(')');
+
+    List<ZammadUser> result = zammadClient.usersSearch(
+      "id", search.toString(), ids.size() * 2);
+
+    if (result != null)
+    {
+      result.stream()
+        .filter(user -> ids.contains(user.getId()) && isManagedUser(user))
+        .forEach(users::add);
+    }
+  }
 
-    LOGGER.info("loaded {} zammad users", zammadUsersList.size());
+  /**
+   * @return true if the user is managed by this syncer, always true
+   * if sync.managed-users-only is disabled
+   */
+  public boolean isManagedUser(ZammadUser user)
+  {
+    return isManagedSource(user.getSource());
+  }
+
+  public boolean isManagedSource(String source)
+  {
+    return !config.isSyncManagedUsersOnly()
+      || config.getSyncSourceMarker().equals(source);
+  }
+
+  private String managedUsersQuery()
+  {
+    return "source:" + quote(config.getSyncSourceMarker());
+  }
+
+  private static String quote(String value)
+  {
+    return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+  }
+
+  private void searchZammadUsers(List<String> logins)
+  {
+    StringBuilder search = new StringBuilder("(");
+
+    for (String login : logins)
+    {
+      if (search.length() > 1)
+      {
+        search.append(" OR ");
+      }
+
+      search.append(quote(login));
+    }
+
+    search.append(')');
+
+    List<ZammadUser> result = zammadClient.usersSearch(
+      "login", search.toString(), logins.size() * 2);
+
+    if (result != null)
+    {
+      // the search is not exact, only take matching logins
+      result.stream()
+        .filter(user -> user.getLogin() != null
+        && logins.contains(ZammadUserIndex.normalize(user.getLogin())))
+        .forEach(zammadUserIndex::add);
+    }
   }
 
   public ZammadUser createUser(ZammadUser user)
@@ -111,6 +585,128 @@ public class ZammadHandler
     return user;
   }
 
+  /**
+   * Creates the users with the CSV import in chunks of
+   * sync.bulk-import.chunk-size users. Every chunk is validated by a try
+   * run first, a chunk with errors is created user by user. The ids of the
+   * created users are set from the import result, users without a matching
+   * import record are looked up and created one by one if they do not
+   * exist. Users with values the CSV import can not carry (e.g. group_ids,
+   * organization_ids) are created one by one.
+   */
+  public void importUsers(List<ZammadUser> allUsers)
+  {
+    int chunkSize = config.getSyncBulkImportChunkSize();
+    List<ZammadUser> users = new ArrayList<>();
+
+    for (ZammadUser user : allUsers)
+    {
+      if (ZammadUserCsv.isImportable(user))
+      {
+        users.add(user);
+      }
+      else
+      {
+        user.setId(createUser(user).getId());
+      }
+    }
+
+    for (int from = 0; from < users.size(); from += chunkSize)
+    {
+      List<ZammadUser> chunk = users.subList(from,
+        Math.min(from + chunkSize, users.size()));
+      byte[] csv = ZammadUserCsv.render(chunk)
+        .getBytes(StandardCharsets.UTF_8);
+
+      ZammadImportResult result = importCsv(csv, true);
+
+      if (result == null || !result.isSuccess())
+      {
+        LOGGER.warn("CSV IMPORT TRY RUN FAILED, creating {} users one by one: {}",
+          chunk.size(), (result != null) ? result.getErrors() : null);
+        chunk.forEach(user -> user.setId(createUser(user).getId()));
+        continue;
+      }
+
+      if (config.isDryRun())
+      {
+        LOGGER.info("CSV IMPORT DRY RUN: {} users validated", chunk.size());
+        continue;
+      }
+
+      result = importCsv(csv, false);
+
+      if (result == null || !result.isSuccess())
+      {
+        delayedErrorExit("*** CSV IMPORT FAILED *** "
+          + ((result != null) ? result.getErrors() : null));
+      }
+
+      Map<String, Integer> ids = new HashMap<>();
+
+      if (result.getRecords() != null)
+      {
+        result.getRecords().stream()
+          .filter(record -> record.getLogin() != null)
+          .forEach(record -> ids.put(
+            ZammadUserIndex.normalize(record.getLogin()), record.getId()));
+      }
+
+      chunk.forEach(user -> user.setId(
+        ids.get(ZammadUserIndex.normalize(user.getLogin()))));
+
+      LOGGER.info("CSV IMPORT: {} users created, stats={}", chunk.size(),
+        result.getStats());
+
+      List<ZammadUser> unmatched = chunk.stream()
+        .filter(user -> user.getId() == null).toList();
+
+      if (!unmatched.isEmpty())
+      {
+        LOGGER.warn("CSV IMPORT: no import record for {} of {} users",
+          unmatched.size(), chunk.size());
+        resolveUnmatchedUsers(unmatched);
+      }
+    }
+  }
+
+  /**
+   * Sets the ids of imported users without import record, users not found
+   * in zammad are created one by one.
+   */
+  private void resolveUnmatchedUsers(List<ZammadUser> users)
+  {
+    lookupZammadUsers(users.stream().map(ZammadUser::getLogin).toList());
+
+    for (ZammadUser user : users)
+    {
+      int index = zammadUserIndex.find(user.getLogin());
+      user.setId((index >= 0) ? zammadUserIndex.getId(index)
+        : createUser(user).getId());
+    }
+  }
+
+  private ZammadImportResult importCsv(byte[] csv, boolean tryRun)
+  {
+    try
+    {
+      return zammadClient.usersImport(tryRun, new ByteArrayResource(csv)
+      {
+        @Override
+        public String getFilename()
+        {
+          return "users.csv";
+        }
+      });
+    }
+    catch (WebClientResponseException e)
+    {
+      LOGGER.warn("CSV IMPORT {}: {}", e.getStatusCode(),
+        e.getResponseBodyAsString());
+      return null;
+    }
+  }
+
   public ZammadUser updateUser(ZammadUser user)
   {
     if (config.isDryRun())
@@ -121,11 +717,14 @@ public class ZammadHandler
     {
       try
       {
-        LOGGER.info("UPDATE: {}", objectMapper.writeValueAsString(user));
-        user = zammadClient.usersUpdate(user.getId(), user);
+        // serialized once, for the log and the request body
+        byte[] json = zammadJsonCodec.write(user);
+        LOGGER.info("UPDATE: {}", new String(json, StandardCharsets.UTF_8));
+        user = zammadClient.usersUpdate(user.getId(), json).toZammadUser();
       }
       catch (Throwable t)
       {
+        invalidateUserCache(t);
         delayedErrorExit("*** UPDATE FAILED *** " + t.getMessage());
       }
     }
@@ -133,6 +732,40 @@ public class ZammadHandler
     return user;
   }
 
+  /**
+   * Sets the avatar of a zammad user with the avatar endpoint on behalf of
+   * the user, a failed upload is logged and does not stop the sync.
+   *
+   * @param imageSource data url of the image
+   * @return false if the upload failed
+   */
+  public boolean updateAvatar(int id, String login, String imageSource)
+  {
+    boolean result = true;
+
+    if (config.isDryRun())
+    {
+      LOGGER.info("AVATAR DRY RUN: {}", login);
+    }
+    else
+    {
+      LOGGER.info("AVATAR: {}", login);
+
+      try
+      {
+        zammadClient.usersAvatar(String.valueOf(id),
+          zammadJsonCodec.write(new ZammadAvatar(imageSource)));
+      }
+      catch (Throwable t)
+      {
+        LOGGER.error("*** AVATAR FAILED *** {}: {}", login, t.getMessage());
+        result = false;
+      }
+    }
+
+    return result;
+  }
+
   public void deleteUser(ZammadUser user)
   {
     ZammadAnonymousUser anonymizedUser = new ZammadAnonymousUser(user.getLogin());
@@ -153,14 +786,79 @@ public class ZammadHandler
       }
       catch (Throwable t)
       {
+        invalidateUserCache(t);
         delayedErrorExit("*** DELETE (anonymize) FAILED *** " + t.getMessage());
       }
     }
   }
   
+  /**
+   * Anonymizes the users in the background with up to
+   * sync.bulk-delete.concurrency parallel requests. Failed users are logged
+   * and left out, the returned Mono emits the logins of all anonymized
+   * users. No request is started after the deadline.
+   */
+  public Mono<List<String>> anonymizeUsers(List<ZammadUser> users,
+    long deadline)
+  {
+    AtomicInteger counter = new AtomicInteger();
+
+    Mono<List<String>> result = Flux.fromIterable(users)
+      .takeWhile(user -> System.currentTimeMillis() < deadline)
+      .flatMap(user ->
+      {
+        ZammadAnonymousUser anonymizedUser
+          = new ZammadAnonymousUser(user.getLogin());
+        LOGGER.info("DELETE (anonymize): {}", anonymizedUser);
+
+        return zammadClient.usersAnonymizeAsync(user.getId(), anonymizedUser)
+          .then(Mono.just(user.getLogin()))
+          .onErrorResume(t ->
+          {
+            LOGGER.error("*** DELETE (anonymize) FAILED *** {}: {}",
+              user.getLogin(), t.getMessage());
+            invalidateUserCache(t);
+            return Mono.empty();
+          });
+      }, config.getSyncBulkDeleteConcurrency())
+      .doOnNext(login ->
+      {
+        int done = counter.incrementAndGet();
+
+        if (done % 100 == 0)
+        {
+          LOGGER.info("bulk delete (anonymize): {}/{} user(s)", done,
+            users.size());
+        }
+      })
+      .collectList()
+      .cache();
+
+    result.subscribe();
+    return result;
+  }
+
+  /**
+   * A user deleted in zammad, but still in the cache, makes the next run
+   * do a full refresh.
+   */
+  private synchronized void invalidateUserCache(Throwable t)
+  {
+    if (t instanceof WebClientResponseException.NotFound && userCache != null)
+    {
+      userCache.invalidate();
+    }
+  }
+
   private void delayedErrorExit( String message )
   {
     LOGGER.error(message);
+
+    if (config.isTenant() || config.isErrorExitDisabled())
+    {
+      // only the sync of this profile, request or operation fails
+      throw new IllegalStateException(message);
+    }
     
     try
     {
@@ -173,17 +871,97 @@ public class ZammadHandler
     System.exit(-1);
   }
 
-  private final ObjectMapper objectMapper = new ObjectMapper();
+  public interface ZammadUserCallback
+  {
+    void user(ZammadUser user) throws Throwable;
+  }
+
+  /**
+   * Requests the next page when the current one is exhausted, until an
+   * empty page is returned. A page shorter than per_page is not the last
+   * one, zammad caps per_page silently.
+   */
+  static class PagedUsersIterator implements Iterator<ZammadUser>
+  {
+    PagedUsersIterator(IntFunction<Flux<ZammadUserProjection>> pageRequest)
+    {
+      this.pageRequest = pageRequest;
+      pageSize = -1;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      while (!current.hasNext() && pageSize != 0)
+      {
+        page++;
+        pageSize = 0;
+        current = pageRequest.apply(page).toIterable(PREFETCH).iterator();
+      }
+
+      return current.hasNext();
+    }
+
+    @Override
+    public ZammadUser next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+
+      pageSize++;
+      return current.next().toZammadUser();
+    }
+
+    private static final int PREFETCH = 32;
+
+    private final IntFunction<Flux<ZammadUserProjection>> pageRequest;
+
+    private Iterator<ZammadUserProjection> current
+      = Collections.emptyIterator();
+
+    private int page;
+
+    private int pageSize;
+  }
 
   @Getter
-  private final Map<String, ZammadUser> zammadUsersMap = new HashMap<>();
+  private ZammadUserIndex zammadUserIndex;
 
+  /**
+   * true if all zammad users are loaded, false after a targeted lookup
+   */
   @Getter
-  private List<ZammadUser> zammadUsersList;
+  private boolean allUsersLoaded;
+
+  /**
+   * disk snapshot of all zammad users, null if disabled
+   */
+  @Setter
+  private ZammadUserCache userCache;
   
   @Getter
   private final Map<Integer, ZammadRole> zammadRoleMap = new HashMap<>();
 
   @Getter
   private List<ZammadRole> zammadRoleList;
+
+  /**
+   * lowercase name to zammad organization, null until read
+   */
+  @Getter
+  private Map<String, ZammadOrganization> zammadOrganizationMap;
+
+  private final Set<String> unknownOrganizationNames = new HashSet<>();
+
+  /**
+   * lowercase names of the organizations written to a plan
+   */
+  private final Set<String> plannedOrganizationNames = new HashSet<>();
+
+  /**
+   * lowercase name to zammad group
+   */
+  private final Map<String, ZammadGroup> zammadGroupMap = new HashMap<>();
 }
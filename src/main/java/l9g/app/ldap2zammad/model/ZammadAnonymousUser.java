@@ -31,10 +31,12 @@ import lombok.ToString;
 @JsonInclude(JsonInclude.Include.ALWAYS)
 public class ZammadAnonymousUser
 {
+  private final static String EMAIL_DOMAIN = "@anonymous.net";
+
   public ZammadAnonymousUser( String login )
   {
     this.login = this.firstname = this.lastname = login;
-    this.email = login + "@anonymous.net";
+    this.email = login + EMAIL_DOMAIN;
     this.prepare_for_deletion = true;
 
     /* All other fields defined in this class but not initialized 
@@ -42,6 +44,15 @@ public class ZammadAnonymousUser
        Cause we use JsonInclude.Include.ALWAYS  */
   }
 
+  /**
+   * @return true if the zammad user was anonymized by a delete
+   */
+  public static boolean isAnonymized(ZammadUser user)
+  {
+    return Boolean.TRUE.equals(user.getPrepare_for_deletion())
+      || (user.getEmail() != null && user.getEmail().endsWith(EMAIL_DOMAIN));
+  }
+
   private Integer organization_id;
 
   private final String login;
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.model;
+
+import lombok.Getter;
+
+/**
+ * Body of the avatar upload (POST /api/v1/users/avatar), both images are
+ * data urls. The sync scales the photo itself, so the full and the resized
+ * image are the same.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@Getter
+public class ZammadAvatar
+{
+  public ZammadAvatar(String imageSource)
+  {
+    this.avatar_full = this.avatar_resize = imageSource;
+  }
+
+  private final String avatar_full;
+
+  private final String avatar_resize;
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Response of the zammad CSV import (/api/v1/users/import).
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@ToString
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ZammadImportResult
+{
+  public final static String RESULT_SUCCESS = "success";
+
+  public boolean isSuccess()
+  {
+    return RESULT_SUCCESS.equals(result)
+      && (errors == null || errors.isEmpty());
+  }
+
+  private boolean try_run;
+
+  private String result;
+
+  private Map<String, Integer> stats;
+
+  private List<ZammadUserProjection> records;
+
+  private List<String> errors;
+}
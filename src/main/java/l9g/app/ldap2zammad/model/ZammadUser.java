@@ -150,9 +150,14 @@ public class ZammadUser
 
   private List<Integer> organization_ids;
 
+  // secondary organizations by name, used by plans for planned organizations
+  private List<String> organizations;
+
   private List<Integer> authorization_ids;
 
   private List<Integer> overview_sorting_ids;
 
+  // an empty map removes the group access (group mapping)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   private Map<String, String[]> group_ids;
 }
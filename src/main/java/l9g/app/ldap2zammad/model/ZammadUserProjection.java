@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import java.util.Date;
+import java.util.List;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Lean read-only view of a zammad user with only the attributes needed by
+ * the sync. All other properties (preferences, group_ids, ...) are skipped
+ * by the parser without being materialized.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@ToString
+@Getter
+@Setter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ZammadUserProjection
+{
+  public static ZammadUserProjection of(ZammadUser user)
+  {
+    ZammadUserProjection projection = new ZammadUserProjection();
+    projection.id = user.getId();
+    projection.login = user.getLogin();
+    projection.firstname = user.getFirstname();
+    projection.lastname = user.getLastname();
+    projection.email = user.getEmail();
+    projection.web = user.getWeb();
+    projection.phone = user.getPhone();
+    projection.fax = user.getFax();
+    projection.mobile = user.getMobile();
+    projection.department = user.getDepartment();
+    projection.verified = user.getVerified();
+    projection.source = user.getSource();
+    projection.updated_at = user.getUpdated_at();
+    projection.customernumber = user.getCustomernumber();
+    projection.location = user.getLocation();
+    projection.building = user.getBuilding();
+    projection.room = user.getRoom();
+    projection.role_ids = user.getRole_ids();
+    projection.organization_id = user.getOrganization_id();
+    projection.organization_ids = user.getOrganization_ids();
+    return projection;
+  }
+
+  public ZammadUser toZammadUser()
+  {
+    ZammadUser user = new ZammadUser();
+    user.setId(id);
+    user.setLogin(login);
+    user.setFirstname(firstname);
+    user.setLastname(lastname);
+    user.setEmail(email);
+    user.setWeb(web);
+    user.setPhone(phone);
+    user.setFax(fax);
+    user.setMobile(mobile);
+    user.setDepartment(department);
+    user.setVerified(verified);
+    user.setSource(source);
+    user.setUpdated_at(updated_at);
+    user.setCustomernumber(customernumber);
+    user.setLocation(location);
+    user.setBuilding(building);
+    user.setRoom(room);
+    user.setRole_ids(role_ids);
+    user.setOrganization_id(organization_id);
+    user.setOrganization_ids(organization_ids);
+    return user;
+  }
+
+  private Integer id;
+
+  private String login;
+
+  private String firstname;
+
+  private String lastname;
+
+  private String email;
+
+  private String web;
+
+  private String phone;
+
+  private String fax;
+
+  private String mobile;
+
+  private String department;
+
+  private Boolean verified;
+
+  private String source;
+
+  private Date updated_at;
+
+  // additional attributes
+  private String customernumber;
+
+  private String location;
+
+  private String building;
+
+  private String room;
+
+  private List<Integer> role_ids;
+
+  private Integer organization_id;
+
+  private List<Integer> organization_ids;
+}
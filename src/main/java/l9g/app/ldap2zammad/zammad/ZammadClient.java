@@ -19,15 +19,23 @@ import io.netty.handler.codec.http.HttpResponse;
 import java.util.List;
 import l9g.app.ldap2zammad.model.ZammadAnonymousUser;
 import l9g.app.ldap2zammad.model.ZammadGroup;
+import l9g.app.ldap2zammad.model.ZammadImportResult;
 import l9g.app.ldap2zammad.model.ZammadOrganization;
 import l9g.app.ldap2zammad.model.ZammadRole;
 import l9g.app.ldap2zammad.model.ZammadUser;
+import l9g.app.ldap2zammad.model.ZammadUserProjection;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.service.annotation.DeleteExchange;
 import org.springframework.web.service.annotation.GetExchange;
 import org.springframework.web.service.annotation.PostExchange;
 import org.springframework.web.service.annotation.PutExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  *
@@ -41,6 +49,16 @@ public interface ZammadClient
   @GetExchange("/api/v1/organizations")
   public List<ZammadOrganization> organizations();
 
+  @GetExchange("/api/v1/organizations?page={page}&per_page={perPage}")
+  public List<ZammadOrganization> organizations(
+    @PathVariable("page") int page,
+    @PathVariable("perPage") int perPage
+  );
+
+  @PostExchange("/api/v1/organizations")
+  public ZammadOrganization organizationsCreate(
+    @RequestBody ZammadOrganization organization);
+
   @GetExchange("/api/v1/roles?page={page}&per_page={perPage}")
   public List<ZammadRole> roles(
     @PathVariable("page") int page,
@@ -53,6 +71,14 @@ public interface ZammadClient
     @PathVariable("perPage") int perPage
   );
 
+  @GetExchange("/api/v1/users?page={page}&per_page={perPage}&sort_by={sortBy}&order_by={orderBy}")
+  public List<ZammadUser> users(
+    @PathVariable("page") int page,
+    @PathVariable("perPage") int perPage,
+    @PathVariable("sortBy") String sortBy,
+    @PathVariable("orderBy") String orderBy
+  );
+
   /*
   Query Parameters
   
@@ -87,6 +113,36 @@ public interface ZammadClient
     @PathVariable("limit") int limit
   );
 
+  @GetExchange("/api/v1/users/search?query={query}&sort_by={sortBy}&order_by={orderBy}&page={page}&per_page={perPage}")
+  public List<ZammadUser> usersSearch(
+    @PathVariable("query") String query,
+    @PathVariable("sortBy") String sortBy,
+    @PathVariable("orderBy") String orderBy,
+    @PathVariable("page") int page,
+    @PathVariable("perPage") int perPage
+  );
+
+  /*
+  Streaming variants, the page body is decoded element by element while
+  it arrives, only the projection attributes are kept.
+   */
+  @GetExchange("/api/v1/users?page={page}&per_page={perPage}&sort_by={sortBy}&order_by={orderBy}")
+  public Flux<ZammadUserProjection> usersStream(
+    @PathVariable("page") int page,
+    @PathVariable("perPage") int perPage,
+    @PathVariable("sortBy") String sortBy,
+    @PathVariable("orderBy") String orderBy
+  );
+
+  @GetExchange("/api/v1/users/search?query={query}&sort_by={sortBy}&order_by={orderBy}&page={page}&per_page={perPage}")
+  public Flux<ZammadUserProjection> usersSearchStream(
+    @PathVariable("query") String query,
+    @PathVariable("sortBy") String sortBy,
+    @PathVariable("orderBy") String orderBy,
+    @PathVariable("page") int page,
+    @PathVariable("perPage") int perPage
+  );
+
   @DeleteExchange("/api/v1/users/{id}")
   public HttpResponse usersDelete(@PathVariable(name = "id") int id);
 
@@ -94,13 +150,49 @@ public interface ZammadClient
   public ZammadUser usersUpdate(@PathVariable(name = "id") int id,
     @RequestBody ZammadUser user);
 
+  /**
+   * update with a body already serialized by ZammadJsonCodec
+   */
+  @PutExchange(url = "/api/v1/users/{id}",
+    contentType = MediaType.APPLICATION_JSON_VALUE)
+  public ZammadUserProjection usersUpdate(@PathVariable(name = "id") int id,
+    @RequestBody byte[] json);
+
   @PutExchange("/api/v1/users/{id}")
   public ZammadUser usersAnonymize(@PathVariable(name = "id") int id,
     @RequestBody ZammadAnonymousUser user);
 
+  /**
+   * non blocking anonymize, used by the bulk delete
+   */
+  @PutExchange("/api/v1/users/{id}")
+  public Mono<Void> usersAnonymizeAsync(@PathVariable(name = "id") int id,
+    @RequestBody ZammadAnonymousUser user);
+
+  /**
+   * avatar upload on behalf of the user (id, login or email), with a body
+   * already serialized by ZammadJsonCodec
+   */
+  @PostExchange(url = "/api/v1/users/avatar",
+    contentType = MediaType.APPLICATION_JSON_VALUE)
+  public void usersAvatar(@RequestHeader("X-On-Behalf-Of") String onBehalfOf,
+    @RequestBody byte[] json);
+
+  @GetExchange("/api/v1/users/{id}")
+  public ZammadUser usersShow(@PathVariable(name = "id") int id);
+
   @PostExchange("/api/v1/users")
   public ZammadUser usersCreate(@RequestBody ZammadUser user);
 
+  /**
+   * CSV user import, with tryRun the data is only validated
+   */
+  @PostExchange(url = "/api/v1/users/import?try={tryRun}",
+    contentType = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public ZammadImportResult usersImport(
+    @PathVariable("tryRun") boolean tryRun,
+    @RequestPart("data") Resource data);
+
   @GetExchange("/api/v1/users/me")
   public ZammadUser me();
 
@@ -15,8 +15,10 @@
  */
 package l9g.app.ldap2zammad.zammad;
 
+import io.netty.channel.ChannelOption;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import java.time.Duration;
 import javax.net.ssl.SSLException;
 import l9g.app.ldap2zammad.Config;
 import l9g.app.ldap2zammad.handler.CryptoHandler;
@@ -29,7 +31,10 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.support.WebClientAdapter;
 import org.springframework.web.service.invoker.HttpServiceProxyFactory;
+import reactor.netty.http.Http2SslContextSpec;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 /**
  *
@@ -47,25 +52,23 @@ public class ZammadClientFactory
   @Autowired
   private CryptoHandler cryptoHandler;
 
+  @Autowired
+  private ZammadJsonCodec zammadJsonCodec;
+
   @Bean
   public ZammadClient createZammadClient() throws SSLException
   {
     LOGGER.debug("createZammadClient");
-    var webClientBuilder = WebClient.builder();
-
-    if (config.isZammadTrustAllCertificates())
-    {
-      var sslContext = SslContextBuilder.forClient().trustManager(
-        InsecureTrustManagerFactory.INSTANCE).build();
-
-      HttpClient httpClient = HttpClient.create().secure(t -> t.sslContext(
-        sslContext));
-
-      webClientBuilder = webClientBuilder
-        .clientConnector(new ReactorClientHttpConnector(httpClient));
-    }
 
-    WebClient webClient = webClientBuilder
+    WebClient webClient = WebClient.builder()
+      .clientConnector(new ReactorClientHttpConnector(createHttpClient()))
+      .codecs(codecs ->
+      {
+        codecs.defaultCodecs()
+          .maxInMemorySize(config.getZammadCodecMaxInMemorySize());
+        codecs.defaultCodecs().jackson2JsonEncoder(zammadJsonCodec.encoder());
+        codecs.defaultCodecs().jackson2JsonDecoder(zammadJsonCodec.decoder());
+      })
       .baseUrl(config.getZammadBaseUrl())
       .defaultHeader("Authorization",
         "Token token=" + cryptoHandler.decrypt(config.getZammadToken()))
@@ -77,4 +80,78 @@ public class ZammadClientFactory
 
     return factory.createClient(ZammadClient.class);
   }
+
+  private HttpClient createHttpClient() throws SSLException
+  {
+    int maxConnections = config.getZammadHttpMaxConnections();
+
+    if (config.isTenant() && config.getTenantsMaxConnections() > 0)
+    {
+      // the pools of the profiles synced in parallel share the limit
+      maxConnections = Math.max(1, Math.min(maxConnections,
+        config.getTenantsMaxConnections()
+        / Math.max(1, config.getTenantsMaxParallel())));
+      LOGGER.debug("tenant maxConnections={}", maxConnections);
+    }
+
+    ConnectionProvider connectionProvider = ConnectionProvider
+      .builder("zammad")
+      .maxConnections(maxConnections)
+      .pendingAcquireMaxCount(config.getZammadHttpPendingAcquireMaxCount())
+      .pendingAcquireTimeout(Duration.ofSeconds(
+        config.getZammadHttpPendingAcquireTimeoutSeconds()))
+      .maxIdleTime(Duration.ofSeconds(config.getZammadHttpMaxIdleSeconds()))
+      .evictInBackground(Duration.ofSeconds(
+        config.getZammadHttpMaxIdleSeconds()))
+      .build();
+
+    HttpClient httpClient = HttpClient.create(connectionProvider)
+      .option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
+        config.getZammadHttpConnectTimeoutSeconds() * 1000)
+      .responseTimeout(Duration.ofSeconds(
+        config.getZammadHttpResponseTimeoutSeconds()))
+      // sends Accept-Encoding: gzip and inflates the response
+      .compress(config.isZammadHttpCompression());
+
+    boolean https = config.getZammadBaseUrl().startsWith("https:");
+
+    if (config.isZammadHttpHttp2())
+    {
+      // HTTP/1.1 stays as fallback, h2 is negotiated with ALPN
+      httpClient = httpClient.protocol(https
+        ? new HttpProtocol[]
+        {
+          HttpProtocol.H2, HttpProtocol.HTTP11
+        }
+        : new HttpProtocol[]
+        {
+          HttpProtocol.H2C, HttpProtocol.HTTP11
+        });
+    }
+
+    if (config.isZammadTrustAllCertificates())
+    {
+      if (config.isZammadHttpHttp2() && https)
+      {
+        Http2SslContextSpec sslContextSpec = Http2SslContextSpec.forClient()
+          .configure(builder -> builder.trustManager(
+            InsecureTrustManagerFactory.INSTANCE));
+
+        httpClient = httpClient.secure(t -> t.sslContext(sslContextSpec));
+      }
+      else
+      {
+        var sslContext = SslContextBuilder.forClient().trustManager(
+          InsecureTrustManagerFactory.INSTANCE).build();
+
+        httpClient = httpClient.secure(t -> t.sslContext(sslContext));
+      }
+    }
+
+    LOGGER.debug("http client: maxConnections={}, compression={}, http2={}",
+      config.getZammadHttpMaxConnections(), config.isZammadHttpCompression(),
+      config.isZammadHttpHttp2());
+
+    return httpClient;
+  }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.zammad;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import l9g.app.ldap2zammad.model.ZammadAvatar;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+
+/**
+ * The one ObjectMapper used for the zammad REST api and for logging the
+ * JSON sent to zammad.
+ *
+ * It is configured like the WebClient default mapper, plus the Blackbird
+ * module which replaces reflective getter and setter calls by generated
+ * lambdas. The writer for zammad users is resolved once, its serializer
+ * is cached by the writer. There is no buffer pool of our own, Jackson
+ * recycles its internal output buffers per thread.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+@Component
+public class ZammadJsonCodec
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(ZammadJsonCodec.class);
+
+  public ZammadJsonCodec()
+  {
+    LOGGER.debug("ZammadJsonCodec");
+    objectMapper = Jackson2ObjectMapperBuilder.json()
+      .modulesToInstall(new BlackbirdModule())
+      .build();
+    userWriter = objectMapper.writerFor(ZammadUser.class);
+    avatarWriter = objectMapper.writerFor(ZammadAvatar.class);
+  }
+
+  @Bean
+  public ZammadJsonCodec zammadJsonCodecBean()
+  {
+    LOGGER.debug("getZammadJsonCodec");
+    return this;
+  }
+
+  public byte[] write(ZammadUser user) throws JsonProcessingException
+  {
+    return userWriter.writeValueAsBytes(user);
+  }
+
+  public byte[] write(ZammadAvatar avatar) throws JsonProcessingException
+  {
+    return avatarWriter.writeValueAsBytes(avatar);
+  }
+
+  public Jackson2JsonEncoder encoder()
+  {
+    return new Jackson2JsonEncoder(objectMapper);
+  }
+
+  public Jackson2JsonDecoder decoder()
+  {
+    return new Jackson2JsonDecoder(objectMapper);
+  }
+
+  @Getter
+  private final ObjectMapper objectMapper;
+
+  private final ObjectWriter userWriter;
+
+  private final ObjectWriter avatarWriter;
+}
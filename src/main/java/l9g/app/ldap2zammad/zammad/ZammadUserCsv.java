@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.zammad;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import l9g.app.ldap2zammad.model.ZammadUser;
+
+/**
+ * Renders zammad users for the CSV user import.
+ *
+ * Only columns with at least one value in the chunk are written, so
+ * custom attributes which are not used do not have to exist in zammad.
+ * Multiple roles are separated by '~~~' like in the zammad CSV export.
+ * Users which are not importable, see isImportable, must be created by
+ * the users API.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ZammadUserCsv
+{
+  private final static String LIST_SEPARATOR = "~~~";
+
+  private final static Map<String, Function<ZammadUser, Object>> COLUMNS
+    = new LinkedHashMap<>();
+
+  static
+  {
+    COLUMNS.put("login", ZammadUser::getLogin);
+    COLUMNS.put("firstname", ZammadUser::getFirstname);
+    COLUMNS.put("lastname", ZammadUser::getLastname);
+    COLUMNS.put("email", ZammadUser::getEmail);
+    COLUMNS.put("web", ZammadUser::getWeb);
+    COLUMNS.put("phone", ZammadUser::getPhone);
+    COLUMNS.put("fax", ZammadUser::getFax);
+    COLUMNS.put("mobile", ZammadUser::getMobile);
+    COLUMNS.put("department", ZammadUser::getDepartment);
+    COLUMNS.put("organization", ZammadUser::getOrganization);
+    COLUMNS.put("organization_id", ZammadUser::getOrganization_id);
+    COLUMNS.put("verified", ZammadUser::getVerified);
+    COLUMNS.put("active", ZammadUser::getActive);
+    COLUMNS.put("note", ZammadUser::getNote);
+    COLUMNS.put("source", ZammadUser::getSource);
+    COLUMNS.put("customernumber", ZammadUser::getCustomernumber);
+    COLUMNS.put("location", ZammadUser::getLocation);
+    COLUMNS.put("building", ZammadUser::getBuilding);
+    COLUMNS.put("room", ZammadUser::getRoom);
+    COLUMNS.put("roles", user -> (user.getRoles() == null
+      || user.getRoles().isEmpty())
+      ? null : String.join(LIST_SEPARATOR, user.getRoles()));
+  }
+
+  /**
+   * The CSV import has no columns for group access, multiple organizations,
+   * role ids and the other values below. A user with such values has to be
+   * created by the users API, otherwise they would be lost silently.
+   *
+   * @return true if the user can be created by the CSV import
+   */
+  public static boolean isImportable(ZammadUser user)
+  {
+    return isEmpty(user.getGroup_ids())
+      && isEmpty(user.getOrganization_ids())
+      && isEmpty(user.getOrganizations())
+      && isEmpty(user.getRole_ids())
+      && isEmpty(user.getAuthorization_ids())
+      && user.getPassword() == null
+      && user.getVip() == null
+      && user.getPrepare_for_deletion() == null
+      && user.getOut_of_office() == null
+      && user.getPreferences() == null;
+  }
+
+  private static boolean isEmpty(Collection<?> values)
+  {
+    return values == null || values.isEmpty();
+  }
+
+  private static boolean isEmpty(Map<?, ?> values)
+  {
+    return values == null || values.isEmpty();
+  }
+
+  public static String render(List<ZammadUser> users)
+  {
+    List<String> header = new ArrayList<>();
+
+    COLUMNS.forEach((name, getter) ->
+    {
+      if (users.stream().anyMatch(user -> getter.apply(user) != null))
+      {
+        header.add(name);
+      }
+    });
+
+    StringBuilder csv = new StringBuilder();
+    csv.append(String.join(",", header)).append('\n');
+
+    for (ZammadUser user : users)
+    {
+      for (int i = 0; i < header.size(); i++)
+      {
+        if (i > 0)
+        {
+          csv.append(',');
+        }
+
+        Object value = COLUMNS.get(header.get(i)).apply(user);
+
+        if (value != null)
+        {
+          csv.append('"')
+            .append(value.toString().replace("\"", "\"\""))
+            .append('"');
+        }
+      }
+
+      csv.append('\n');
+    }
+
+    return csv.toString();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class BatchApplicationTest
+{
+  @Test
+  public void syncUserOptions()
+  {
+    assertDoesNotThrow(() -> BatchApplication.checkOptions("sync-user",
+      List.of("--login", "alice", "bob", "--dry-run")));
+    assertDoesNotThrow(() -> BatchApplication.checkOptions("sync-user",
+      List.of("--dry-run", "true", "--login", "alice", "--login", "bob")));
+
+    // logins without --login, unknown option, no login
+    assertThrows(IllegalArgumentException.class,
+      () -> BatchApplication.checkOptions("sync-user", List.of("alice")));
+    assertThrows(IllegalArgumentException.class,
+      () -> BatchApplication.checkOptions("sync-user",
+        List.of("--login", "alice", "--dryrun")));
+    assertThrows(IllegalArgumentException.class,
+      () -> BatchApplication.checkOptions("sync-user", List.of("--dry-run")));
+  }
+
+  @Test
+  public void syncOptions()
+  {
+    assertDoesNotThrow(() -> BatchApplication.checkOptions("sync",
+      List.of("--full-sync", "--max-duration", "15m", "--plan", "plan.jsonl",
+        "--force-deletes", "false")));
+
+    assertThrows(IllegalArgumentException.class,
+      () -> BatchApplication.checkOptions("sync", List.of("--login", "a")));
+    assertThrows(IllegalArgumentException.class,
+      () -> BatchApplication.checkOptions("sync",
+        List.of("--dry-run", "yes")));
+    assertThrows(IllegalArgumentException.class,
+      () -> BatchApplication.checkOptions("daemon", List.of("--port")));
+  }
+
+  @Test
+  public void restoreArguments()
+    throws Exception
+  {
+    Path file = new File(tempDir, "crac.args").toPath();
+
+    Files.write(file, List.of("sync", "--dry-run", ""));
+    assertArrayEquals(new String[]
+    {
+      "sync", "--dry-run"
+    }, BatchApplication.restoreArguments(file));
+
+    // no command, the checkpoint command itself, unknown option
+    Files.write(file, List.of());
+    assertThrows(IllegalArgumentException.class,
+      () -> BatchApplication.restoreArguments(file));
+    Files.write(file, List.of("crac-restore"));
+    assertThrows(IllegalArgumentException.class,
+      () -> BatchApplication.restoreArguments(file));
+    Files.write(file, List.of("sync", "--login", "alice"));
+    assertThrows(IllegalArgumentException.class,
+      () -> BatchApplication.restoreArguments(file));
+  }
+
+  @TempDir
+  File tempDir;
+}
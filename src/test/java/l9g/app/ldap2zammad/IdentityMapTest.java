@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class IdentityMapTest
+{
+  @TempDir
+  File varDirectory;
+
+  private static ZammadUser user(String login, int id)
+  {
+    ZammadUser user = new ZammadUser();
+    user.setLogin(login);
+    user.setId(id);
+    return user;
+  }
+
+  @Test
+  public void writeAndRead() throws IOException
+  {
+    IdentityMap identityMap = new IdentityMap(varDirectory, "test");
+    identityMap.put("uuid-1", 42, "login-42");
+    identityMap.put("uuid-2", 43, "login-43");
+    identityMap.put(null, 44, "login-44");
+    identityMap.write();
+
+    identityMap = new IdentityMap(varDirectory, "test");
+    assertEquals(2, identityMap.size());
+    assertEquals(42, identityMap.getZammadId("uuid-1"));
+    assertNull(identityMap.getZammadId("uuid-3"));
+    assertNull(identityMap.getZammadId(null));
+    assertEquals("login-42", identityMap.getLogin("uuid-1"));
+  }
+
+  @Test
+  public void readWithoutLogin() throws IOException
+  {
+    // written by older versions
+    Files.write(new File(varDirectory, "test-identity.map").toPath(),
+      List.of("uuid-1\t42"));
+
+    IdentityMap identityMap = new IdentityMap(varDirectory, "test");
+    assertEquals(42, identityMap.getZammadId("uuid-1"));
+    assertNull(identityMap.getLogin("uuid-1"));
+  }
+
+  @Test
+  public void renamedUserById() throws IOException
+  {
+    IdentityMap identityMap = new IdentityMap(varDirectory, "test");
+    identityMap.put("uuid-1", 42, "old-login");
+
+    ZammadUser renamed = user("old-login", 42);
+    identityMap.addRenamedUser("uuid-1", renamed);
+    assertTrue(identityMap.isRenamed("uuid-1"));
+    assertSame(renamed, identityMap.removeRenamedUser("uuid-1"));
+    assertFalse(identityMap.isRenamed("uuid-1"));
+  }
+
+  @Test
+  public void detectRename() throws IOException
+  {
+    IdentityMap identityMap = new IdentityMap(varDirectory, "test");
+    identityMap.put("uuid-1", 42, "login-42");
+    identityMap.put("uuid-2", 43, "login-43");
+    // uuid-1 was read by this sync, uuid-2 is gone from ldap
+    identityMap.setLdapUuids(Set.of("uuid-1"));
+
+    ZammadUser renamed = user("old-login", 42);
+    assertTrue(identityMap.detectRename(renamed));
+    assertFalse(identityMap.detectRename(user("deleted", 43)));
+    assertFalse(identityMap.detectRename(user("unknown", 44)));
+
+    assertSame(renamed, identityMap.removeRenamedUser("uuid-1"));
+    // a rename candidate is used once
+    assertNull(identityMap.removeRenamedUser("uuid-1"));
+    assertNull(identityMap.removeRenamedUser(null));
+  }
+
+  @Test
+  public void remappedUuidReleasesOldId() throws IOException
+  {
+    IdentityMap identityMap = new IdentityMap(varDirectory, "test");
+    identityMap.put("uuid-1", 42, "login-42");
+    // the user was created again in zammad
+    identityMap.put("uuid-1", 50, "login-50");
+    identityMap.setLdapUuids(Set.of("uuid-1"));
+
+    assertEquals(50, identityMap.getZammadId("uuid-1"));
+    assertFalse(identityMap.detectRename(user("old", 42)));
+
+    identityMap.remove(50);
+    assertEquals(0, identityMap.size());
+  }
+}
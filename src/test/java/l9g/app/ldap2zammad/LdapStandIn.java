@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import java.io.FileReader;
+import java.io.Reader;
+import java.util.Map;
+import l9g.app.ldap2zammad.crypto.AppSecretKey;
+import l9g.app.ldap2zammad.handler.CryptoHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * In-memory ldap stand-in for NATIVE_SMOKE_TEST.sh, started from the test
+ * classpath. It listens with the base dn, port and bind dn of
+ * data/application.yaml and serves the entries of an ldif file (default
+ * data/smoke-test.ldif) until the jvm is stopped.
+ *
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class LdapStandIn
+{
+  private final static Logger LOGGER
+    = LoggerFactory.getLogger(LdapStandIn.class);
+
+  public static void main(String[] args) throws Throwable
+  {
+    String ldif = (args.length > 0) ? args[0]
+      : Application.CONFIG_PATH + "smoke-test.ldif";
+
+    Map<String, Object> ldap;
+
+    try (Reader reader = new FileReader(
+      Application.CONFIG_PATH + "application.yaml"))
+    {
+      Map<String, Object> yaml = new Yaml().load(reader);
+      ldap = map(yaml, "ldap");
+    }
+
+    String baseDn = (String) ldap.get("base-dn");
+    int port = ((Number) map(ldap, "host").get("port")).intValue();
+    Map<String, Object> bind = map(ldap, "bind");
+    String bindPassword = new CryptoHandler(new AppSecretKey())
+      .decrypt(String.valueOf(bind.get("password")));
+
+    InMemoryDirectoryServerConfig serverConfig
+      = new InMemoryDirectoryServerConfig(baseDn);
+    serverConfig.addAdditionalBindCredentials((String) bind.get("dn"),
+      bindPassword);
+    serverConfig.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig(
+      "ldap", port));
+    // accept the custom attributes of the sample mapping
+    serverConfig.setSchema(null);
+
+    InMemoryDirectoryServer server = new InMemoryDirectoryServer(serverConfig);
+    int entries = server.importFromLDIF(true, ldif);
+    server.startListening();
+    Runtime.getRuntime().addShutdownHook(
+      new Thread(() -> server.shutDown(true)));
+
+    LOGGER.info("ldap stand-in with {} entries listening on port {}",
+      entries, port);
+    Thread.currentThread().join();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> map(Map<String, Object> map, String key)
+  {
+    return (Map<String, Object>) map.get(key);
+  }
+}
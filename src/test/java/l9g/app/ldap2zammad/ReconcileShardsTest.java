@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ReconcileShardsTest
+{
+  @TempDir
+  File varDirectory;
+
+  private void writeShard(String value) throws IOException
+  {
+    try (PrintWriter out = new PrintWriter(
+      new File(varDirectory, "test-reconcile.shard")))
+    {
+      out.println(value);
+    }
+  }
+
+  @Test
+  public void firstSyncStartsWithShardZero() throws IOException
+  {
+    ReconcileShards shards = new ReconcileShards(varDirectory, "test", 4);
+    assertEquals(0, shards.getShard());
+    assertEquals(4, shards.getShards());
+  }
+
+  @Test
+  public void nextShardWrapsAround() throws IOException
+  {
+    for (int i = 0; i < 3; i++)
+    {
+      ReconcileShards shards = new ReconcileShards(varDirectory, "test", 3);
+      assertEquals(i, shards.getShard());
+      shards.writeNextShard();
+    }
+
+    assertEquals(0, new ReconcileShards(varDirectory, "test", 3).getShard());
+  }
+
+  @Test
+  public void changedShardCount() throws IOException
+  {
+    writeShard("5");
+    assertEquals(2, new ReconcileShards(varDirectory, "test", 3).getShard());
+
+    writeShard("-1");
+    assertEquals(2, new ReconcileShards(varDirectory, "test", 3).getShard());
+
+    writeShard("invalid");
+    assertEquals(0, new ReconcileShards(varDirectory, "test", 3).getShard());
+  }
+
+  @Test
+  public void everyLoginInExactlyOneShard() throws IOException
+  {
+    int shardCount = 4;
+    ReconcileShards[] shards = new ReconcileShards[shardCount];
+
+    for (int i = 0; i < shardCount; i++)
+    {
+      writeShard(Integer.toString(i));
+      shards[i] = new ReconcileShards(varDirectory, "test", shardCount);
+    }
+
+    for (int i = 0; i < 1000; i++)
+    {
+      String login = "user" + i;
+      int count = 0;
+
+      for (ReconcileShards shard : shards)
+      {
+        if (shard.contains(login))
+        {
+          count++;
+        }
+      }
+
+      assertEquals(1, count, login);
+    }
+  }
+}
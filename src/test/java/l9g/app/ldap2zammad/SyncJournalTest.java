@@ -0,0 +1,181 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import com.unboundid.asn1.ASN1GeneralizedTime;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class SyncJournalTest
+{
+  private final static long RUN_TIME = 1700000000000l;
+
+  @TempDir
+  File varDirectory;
+
+  @Test
+  public void resumeInterruptedRun() throws IOException
+  {
+    try (SyncJournal journal = new SyncJournal(varDirectory, "test", true))
+    {
+      assertFalse(journal.load());
+      journal.begin(new ASN1GeneralizedTime(RUN_TIME), true);
+      journal.phaseCompleted(SyncJournal.PHASE_DELETE);
+      journal.loginCompleted(SyncJournal.PHASE_UPDATE, "alice");
+      // interrupted, close without finish
+    }
+
+    SyncJournal journal = new SyncJournal(varDirectory, "test", true);
+    assertTrue(journal.load());
+    assertEquals(RUN_TIME, journal.getRunTimestamp().getTime());
+    assertTrue(journal.isFullSync());
+    assertTrue(journal.isPhaseCompleted(SyncJournal.PHASE_DELETE));
+    assertFalse(journal.isPhaseCompleted(SyncJournal.PHASE_UPDATE));
+    assertTrue(journal.isLoginCompleted(SyncJournal.PHASE_UPDATE, "alice"));
+    assertFalse(journal.isLoginCompleted(SyncJournal.PHASE_UPDATE, "bob"));
+    assertFalse(journal.isYielded());
+  }
+
+  @Test
+  public void finishRemovesJournal() throws IOException
+  {
+    SyncJournal journal = new SyncJournal(varDirectory, "test", true);
+    journal.begin(new ASN1GeneralizedTime(RUN_TIME), false);
+    journal.loginCompleted(SyncJournal.PHASE_UPDATE, "alice");
+    journal.finish();
+
+    assertFalse(new SyncJournal(varDirectory, "test", true).load());
+  }
+
+  @Test
+  public void compactionKeepsLoadedRun() throws IOException
+  {
+    try (SyncJournal journal = new SyncJournal(varDirectory, "test", true))
+    {
+      journal.begin(new ASN1GeneralizedTime(RUN_TIME), true);
+      journal.loginCompleted(SyncJournal.PHASE_UPDATE, "alice");
+      journal.loginCompleted(SyncJournal.PHASE_UPDATE, "alice");
+      journal.sliceCompleted(new ASN1GeneralizedTime(RUN_TIME - 60000));
+    }
+
+    try (SyncJournal journal = new SyncJournal(varDirectory, "test", true))
+    {
+      assertTrue(journal.load());
+      // resumed, the run timestamp and mode of the loaded run are kept
+      journal.begin(new ASN1GeneralizedTime(RUN_TIME + 3600000), false);
+      journal.loginCompleted(SyncJournal.PHASE_UPDATE, "bob");
+    }
+
+    SyncJournal journal = new SyncJournal(varDirectory, "test", true);
+    assertTrue(journal.load());
+    assertEquals(RUN_TIME, journal.getRunTimestamp().getTime());
+    assertTrue(journal.isFullSync());
+    assertEquals(RUN_TIME - 60000, journal.getSliceCheckpoint().getTime());
+    assertTrue(journal.isLoginCompleted(SyncJournal.PHASE_UPDATE, "alice"));
+    assertTrue(journal.isLoginCompleted(SyncJournal.PHASE_UPDATE, "bob"));
+  }
+
+  @Test
+  public void tornRecordIsIgnored() throws IOException
+  {
+    try (SyncJournal journal = new SyncJournal(varDirectory, "test", true))
+    {
+      journal.begin(new ASN1GeneralizedTime(RUN_TIME), false);
+      journal.loginCompleted(SyncJournal.PHASE_UPDATE, "alice");
+    }
+
+    try (FileWriter writer = new FileWriter(
+      new File(varDirectory, "test-sync.journal"), true))
+    {
+      writer.write("DONE\tUPD");
+    }
+
+    SyncJournal journal = new SyncJournal(varDirectory, "test", true);
+    assertTrue(journal.load());
+    assertTrue(journal.isLoginCompleted(SyncJournal.PHASE_UPDATE, "alice"));
+  }
+
+  @Test
+  public void readOnlyJournalWritesNothing() throws IOException
+  {
+    try (SyncJournal journal = new SyncJournal(varDirectory, "test", false))
+    {
+      journal.begin(new ASN1GeneralizedTime(RUN_TIME), false);
+      journal.loginCompleted(SyncJournal.PHASE_UPDATE, "alice");
+      journal.phaseCompleted(SyncJournal.PHASE_UPDATE);
+    }
+
+    assertFalse(new File(varDirectory, "test-sync.journal").exists());
+  }
+
+  @Test
+  public void yieldSurvivesCompaction() throws IOException
+  {
+    try (SyncJournal journal = new SyncJournal(varDirectory, "test", true))
+    {
+      journal.begin(new ASN1GeneralizedTime(RUN_TIME), false);
+      journal.loginCompleted(SyncJournal.PHASE_UPDATE, "alice");
+      journal.yielded();
+    }
+
+    try (SyncJournal journal = new SyncJournal(varDirectory, "test", true))
+    {
+      assertTrue(journal.load());
+      assertTrue(journal.isYielded());
+      // the continued run is interrupted before it yields again
+      journal.begin(new ASN1GeneralizedTime(RUN_TIME + 600000), false);
+    }
+
+    SyncJournal journal = new SyncJournal(varDirectory, "test", true);
+    assertTrue(journal.load());
+    assertTrue(journal.isYielded());
+    assertEquals(RUN_TIME, journal.getRunTimestamp().getTime());
+
+    journal.reset();
+    assertFalse(journal.isYielded());
+  }
+
+  @Test
+  public void readOnlyJournalKeepsYieldedRun() throws IOException
+  {
+    try (SyncJournal journal = new SyncJournal(varDirectory, "test", true))
+    {
+      journal.begin(new ASN1GeneralizedTime(RUN_TIME), false);
+      journal.yielded();
+    }
+
+    // a dry run reads, but never changes or removes the journal
+    SyncJournal dryRunJournal = new SyncJournal(varDirectory, "test", false);
+    assertTrue(dryRunJournal.load());
+    dryRunJournal.reset();
+    dryRunJournal.begin(new ASN1GeneralizedTime(RUN_TIME + 600000), false);
+    dryRunJournal.finish();
+
+    SyncJournal journal = new SyncJournal(varDirectory, "test", true);
+    assertTrue(journal.load());
+    assertTrue(journal.isYielded());
+  }
+}
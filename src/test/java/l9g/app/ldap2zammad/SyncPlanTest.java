@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import l9g.app.ldap2zammad.zammad.ZammadJsonCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class SyncPlanTest
+{
+  @TempDir
+  File directory;
+
+  @Test
+  public void roundTrip() throws Throwable
+  {
+    ObjectMapper objectMapper = new ZammadJsonCodec().getObjectMapper();
+    File planFile = new File(directory, "plan.jsonl");
+
+    ZammadUser createUser = new ZammadUser();
+    createUser.setLogin("alice");
+    createUser.setFirstname("Alice");
+    createUser.setRoles(List.of("Customer"));
+    createUser.setOrganization("Example");
+
+    ZammadUser updateUser = new ZammadUser();
+    updateUser.setId(42);
+    updateUser.setLogin("bob");
+    updateUser.setLastname("Builder");
+
+    ZammadUser deleteUser = new ZammadUser();
+    deleteUser.setId(43);
+    deleteUser.setLogin("carol");
+    deleteUser.setLastname("not written");
+
+    try (SyncPlan plan = new SyncPlan(planFile, objectMapper))
+    {
+      plan.createOrganization("Example");
+      plan.create(createUser);
+      plan.update(updateUser);
+      plan.anonymize(deleteUser);
+      assertEquals(4, plan.getSize());
+    }
+
+    List<SyncPlan.Operation> operations = new ArrayList<>();
+    assertEquals(4, SyncPlan.read(planFile, objectMapper, operations::add));
+
+    SyncPlan.Operation operation = operations.get(0);
+    assertEquals(SyncPlan.OP_CREATE_ORGANIZATION, operation.getOp());
+    assertEquals("Example", operation.getName());
+    assertNull(operation.getLogin());
+
+    operation = operations.get(1);
+    assertEquals(SyncPlan.OP_CREATE, operation.getOp());
+    assertNull(operation.getId());
+    assertEquals("alice", operation.getLogin());
+    assertEquals("Alice", operation.getUser().getFirstname());
+    assertEquals(List.of("Customer"), operation.getUser().getRoles());
+    assertEquals("Example", operation.getUser().getOrganization());
+
+    operation = operations.get(2);
+    assertEquals(SyncPlan.OP_UPDATE, operation.getOp());
+    assertEquals(42, operation.getId());
+    assertEquals(42, operation.getUser().getId());
+    assertEquals("bob", operation.getUser().getLogin());
+    assertEquals("Builder", operation.getUser().getLastname());
+
+    operation = operations.get(3);
+    assertEquals(SyncPlan.OP_ANONYMIZE, operation.getOp());
+    assertEquals(43, operation.getUser().getId());
+    assertEquals("carol", operation.getUser().getLogin());
+    assertNull(operation.getUser().getLastname());
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import com.unboundid.asn1.ASN1GeneralizedTime;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class TimestampUtilTest
+{
+  private final static long MARK = 1700000000000l;
+
+  private final static int OVERLAP_SECONDS = 60;
+
+  @TempDir
+  File configDirectory;
+
+  private TimestampUtil timestampUtil()
+  {
+    return new TimestampUtil(configDirectory.getPath() + File.separator,
+      "test", OVERLAP_SECONDS);
+  }
+
+  @Test
+  public void firstSyncStartsAtZero()
+  {
+    TimestampUtil timestampUtil = timestampUtil();
+    assertEquals(0, timestampUtil.getLastSyncTimestamp().getTime());
+    assertEquals(0, timestampUtil.getDeltaStartTimestamp().getTime());
+  }
+
+  @Test
+  public void unreadableTimestampThrows() throws IOException
+  {
+    File varDirectory = TimestampUtil.varDirectory(
+      configDirectory.getPath() + File.separator);
+    Files.writeString(new File(varDirectory, "test-lastsync.timestamp")
+      .toPath(), "not a timestamp");
+
+    // a sync profile must not exit the jvm
+    assertThrows(IllegalStateException.class, this::timestampUtil);
+  }
+
+  @Test
+  public void highWaterMarkIsNewestProcessedEntry() throws IOException
+  {
+    TimestampUtil timestampUtil = timestampUtil();
+    timestampUtil.entryProcessed("alice", new Date(MARK - 5000), "a1");
+    timestampUtil.entryProcessed("bob", new Date(MARK), "b1");
+    // the sync start time is not used if all entries have a timestamp
+    timestampUtil.writeHighWaterMark(new ASN1GeneralizedTime(MARK + 3600000));
+
+    timestampUtil = timestampUtil();
+    assertEquals(MARK, timestampUtil.getLastSyncTimestamp().getTime());
+    assertEquals(MARK - OVERLAP_SECONDS * 1000l,
+      timestampUtil.getDeltaStartTimestamp().getTime());
+  }
+
+  @Test
+  public void highWaterMarkNeverMovesBack() throws IOException
+  {
+    TimestampUtil timestampUtil = timestampUtil();
+    timestampUtil.entryProcessed("alice", new Date(MARK), "a1");
+    timestampUtil.writeHighWaterMark(new ASN1GeneralizedTime(MARK));
+
+    timestampUtil = timestampUtil();
+    timestampUtil.entryProcessed("bob", new Date(MARK - 30000), "b1");
+    timestampUtil.writeHighWaterMark(new ASN1GeneralizedTime(MARK));
+
+    assertEquals(MARK, timestampUtil().getLastSyncTimestamp().getTime());
+  }
+
+  @Test
+  public void missingModifyTimestampUsesFallback() throws IOException
+  {
+    TimestampUtil timestampUtil = timestampUtil();
+    timestampUtil.entryProcessed("alice", new Date(MARK), "a1");
+    timestampUtil.entryProcessed("bob", null, null);
+    timestampUtil.writeHighWaterMark(new ASN1GeneralizedTime(MARK + 10000));
+
+    assertEquals(MARK + 10000,
+      timestampUtil().getLastSyncTimestamp().getTime());
+  }
+
+  @Test
+  public void overlapFingerprints() throws IOException
+  {
+    TimestampUtil timestampUtil = timestampUtil();
+    timestampUtil.entryProcessed("alice", new Date(MARK), "a1");
+    timestampUtil.entryProcessed("bob", new Date(MARK - 30000), "b1");
+    // outside of the next overlap window
+    timestampUtil.entryProcessed("carol", new Date(MARK - 120000), "c1");
+    timestampUtil.writeHighWaterMark(new ASN1GeneralizedTime(MARK));
+
+    timestampUtil = timestampUtil();
+    assertTrue(timestampUtil.isUnchangedInOverlap("alice", "a1"));
+    assertTrue(timestampUtil.isUnchangedInOverlap("bob", "b1"));
+    assertFalse(timestampUtil.isUnchangedInOverlap("alice", "a2"));
+    assertFalse(timestampUtil.isUnchangedInOverlap("carol", "c1"));
+    assertFalse(timestampUtil.isUnchangedInOverlap("dave", null));
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import l9g.app.ldap2zammad.zammad.ZammadJsonCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ZammadUserCacheTest
+{
+  @TempDir
+  File directory;
+
+  @Test
+  public void roundTripKeepsProjection() throws Throwable
+  {
+    ZammadJsonCodec zammadJsonCodec = new ZammadJsonCodec();
+
+    ZammadUser user = new ZammadUser();
+    user.setId(42);
+    user.setLogin("alice");
+    user.setFirstname("Alice");
+    user.setSource("ldap2zammad");
+    user.setUpdated_at(new Date(1700000000000l));
+    user.setRole_ids(List.of(3));
+    user.setNote("not cached");
+
+    ZammadUserCache cache = new ZammadUserCache(directory, "test", 24,
+      zammadJsonCodec.getObjectMapper());
+    cache.replaceAll(List.of(user));
+    cache.save();
+
+    cache = new ZammadUserCache(directory, "test", 24,
+      zammadJsonCodec.getObjectMapper());
+    assertTrue(cache.load());
+    assertEquals(1, cache.getUsers().size());
+
+    ZammadUser cachedUser = cache.getUsers().get(0);
+    // the write only properties of ZammadUser are kept
+    assertEquals(42, cachedUser.getId());
+    assertEquals(1700000000000l, cachedUser.getUpdated_at().getTime());
+    assertEquals("alice", cachedUser.getLogin());
+    assertEquals("Alice", cachedUser.getFirstname());
+    assertEquals("ldap2zammad", cachedUser.getSource());
+    assertEquals(List.of(3), cachedUser.getRole_ids());
+    // not part of the projection
+    assertNull(cachedUser.getNote());
+    assertEquals(1700000000000l, cache.getUpdatedAt().getTime());
+  }
+
+  @Test
+  public void invalidateRemovesSnapshot() throws Throwable
+  {
+    ZammadUser user = new ZammadUser();
+    user.setId(1);
+    user.setLogin("bob");
+
+    ZammadUserCache cache = new ZammadUserCache(directory, "test", 24,
+      new ZammadJsonCodec().getObjectMapper());
+    cache.replaceAll(List.of(user));
+    cache.save();
+    cache.invalidate();
+
+    assertFalse(cache.load());
+    assertTrue(cache.getUsers().isEmpty());
+  }
+}
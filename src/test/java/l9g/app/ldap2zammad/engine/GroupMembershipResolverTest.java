@@ -0,0 +1,162 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.engine;
+
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import l9g.app.ldap2zammad.GroupMapping;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class GroupMembershipResolverTest
+{
+  private final static String GROUP_A = "cn=A,ou=groups,dc=example,dc=de";
+
+  private final static String GROUP_B = "cn=B,ou=groups,dc=example,dc=de";
+
+  private final static String GROUP_C = "cn=C,ou=groups,dc=example,dc=de";
+
+  private final static String ALICE = "uid=alice,ou=people,dc=example,dc=de";
+
+  private final static String BOB = "uid=bob,ou=people,dc=example,dc=de";
+
+  @TempDir
+  File directory;
+
+  private static GroupMapping mapping(String... groups)
+  {
+    GroupMapping mapping = new GroupMapping();
+
+    for (String group : groups)
+    {
+      GroupMapping.Rule rule = new GroupMapping.Rule();
+      rule.setGroup(group);
+      rule.setRoles(List.of("role of " + group));
+      mapping.getRules().add(rule);
+    }
+
+    return mapping;
+  }
+
+  private static List<String> groupsOf(GroupMembershipResolver resolver,
+    Entry entry)
+  {
+    List<String> groups = new ArrayList<>();
+    resolver.rulesOf(entry).forEach(rule -> groups.add(rule.getGroup()));
+    return groups;
+  }
+
+  @Test
+  public void nestedGroups()
+  {
+    GroupMembershipResolver resolver
+      = new GroupMembershipResolver(mapping(GROUP_A), false);
+    // A contains B contains C contains alice, dns are compared normalized
+    resolver.addGroup(GROUP_A, List.of(GROUP_B.toUpperCase(), BOB));
+    resolver.addGroup(GROUP_B, List.of(GROUP_C));
+    resolver.addGroup(GROUP_C, List.of(ALICE));
+    resolver.resolve();
+
+    assertEquals(List.of(GROUP_A), groupsOf(resolver, new Entry(ALICE)));
+    assertEquals(List.of(GROUP_A), groupsOf(resolver, new Entry(BOB)));
+    assertEquals(List.of(), groupsOf(resolver,
+      new Entry("uid=carol,ou=people,dc=example,dc=de")));
+  }
+
+  @Test
+  public void membershipCycle()
+  {
+    GroupMembershipResolver resolver
+      = new GroupMembershipResolver(mapping(GROUP_A, GROUP_B), false);
+    // A and B contain each other, so both have alice and bob as members
+    resolver.addGroup(GROUP_A, List.of(GROUP_B, ALICE));
+    resolver.addGroup(GROUP_B, List.of(GROUP_A, BOB));
+    resolver.resolve();
+
+    assertEquals(List.of(GROUP_A, GROUP_B),
+      groupsOf(resolver, new Entry(ALICE)));
+    assertEquals(List.of(GROUP_A, GROUP_B),
+      groupsOf(resolver, new Entry(BOB)));
+  }
+
+  @Test
+  public void changedMembersBySnapshot() throws IOException
+  {
+    File snapshot = new File(directory, "group.members");
+
+    GroupMembershipResolver resolver
+      = new GroupMembershipResolver(mapping(GROUP_A), false);
+    resolver.addGroup(GROUP_A, List.of(ALICE, BOB));
+    resolver.resolve();
+    resolver.readSnapshot(snapshot);
+    // no snapshot, all members are changed
+    assertTrue(resolver.isChanged(new Entry(ALICE)));
+    resolver.writeSnapshot(snapshot);
+
+    resolver = new GroupMembershipResolver(mapping(GROUP_A), false);
+    resolver.addGroup(GROUP_A, List.of(ALICE));
+    resolver.resolve();
+    resolver.readSnapshot(snapshot);
+    assertFalse(resolver.isChanged(new Entry(ALICE)));
+    // removed from all mapped groups
+    assertTrue(resolver.isChanged(new Entry(BOB)));
+  }
+
+  @Test
+  public void changedMembersByMemberOf() throws IOException
+  {
+    File snapshot = new File(directory, "group.members");
+    Entry alice = new Entry(ALICE, new Attribute(
+      GroupMembershipResolver.MEMBER_OF, GROUP_A));
+    Entry bob = new Entry(BOB, new Attribute(
+      GroupMembershipResolver.MEMBER_OF, GROUP_A, GROUP_C));
+
+    GroupMembershipResolver resolver
+      = new GroupMembershipResolver(mapping(GROUP_A, GROUP_B), true);
+    resolver.readSnapshot(snapshot);
+    assertEquals(List.of(GROUP_A), groupsOf(resolver, alice));
+    assertEquals(List.of(GROUP_A), groupsOf(resolver, bob));
+    assertTrue(resolver.isChanged(alice));
+    resolver.writeSnapshot(snapshot);
+
+    resolver = new GroupMembershipResolver(mapping(GROUP_A, GROUP_B), true);
+    resolver.readSnapshot(snapshot);
+    assertFalse(resolver.isChanged(alice));
+    // bob moved from A to B
+    bob = new Entry(BOB, new Attribute(
+      GroupMembershipResolver.MEMBER_OF, GROUP_B));
+    assertTrue(resolver.isChanged(bob));
+    assertEquals(List.of(GROUP_B), groupsOf(resolver, bob));
+    resolver.writeSnapshot(snapshot);
+
+    resolver = new GroupMembershipResolver(mapping(GROUP_A, GROUP_B), true);
+    resolver.readSnapshot(snapshot);
+    assertFalse(resolver.isChanged(bob));
+    // alice left all mapped groups
+    assertTrue(resolver.isChanged(new Entry(ALICE)));
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ReconciliationEngineTest
+{
+  @Test
+  public void mergeJoinInLoginOrder() throws Throwable
+  {
+    List<String> events = new ArrayList<>();
+
+    try (SortedSpool ldapLogins = new SortedSpool("ldap", 2);
+      SortedSpool zammadRecords = new SortedSpool("zammad", 2))
+    {
+      for (String login : new String[]
+      {
+        "dora", "anna", "carl", "an"
+      })
+      {
+        ldapLogins.add(login);
+      }
+
+      int id = 1;
+
+      for (String login : new String[]
+      {
+        "emil", "carl", "bert", "an"
+      })
+      {
+        zammadRecords.add(ReconciliationEngine.toRecord(user(login, id++)));
+      }
+
+      ReconciliationEngine.reconcile(ldapLogins.iterator(),
+        zammadRecords.iterator(), new ReconciliationEngine.Handler()
+      {
+        @Override
+        public void match(String login, ZammadUser zammadUser)
+        {
+          events.add("match " + login + " " + zammadUser.getId());
+        }
+
+        @Override
+        public void ldapOnly(String login)
+        {
+          events.add("ldap " + login);
+        }
+
+        @Override
+        public void zammadOnly(ZammadUser zammadUser)
+        {
+          events.add("zammad " + zammadUser.getLogin());
+        }
+      });
+    }
+
+    // "an" is a prefix of "anna" and sorts first
+    assertEquals(List.of("match an 4", "ldap anna", "zammad bert",
+      "match carl 2", "ldap dora", "zammad emil"), events);
+  }
+
+  @Test
+  public void recordRoundTrip() throws IOException
+  {
+    ZammadUser user = user("Alice", 42);
+    user.setRole_ids(List.of(3, 1));
+    user.setSource("ldap2zammad");
+    user.setEmail("alice\t@example.de");
+
+    ZammadUser copy = ReconciliationEngine.fromRecord(
+      ReconciliationEngine.toRecord(user));
+
+    assertEquals("alice", copy.getLogin());
+    assertEquals(42, copy.getId());
+    assertEquals(List.of(3, 1), copy.getRole_ids());
+    assertEquals("ldap2zammad", copy.getSource());
+    // the separator is replaced
+    assertEquals("alice @example.de", copy.getEmail());
+
+    copy = ReconciliationEngine.fromRecord(
+      ReconciliationEngine.toRecord(user("bob", 7)));
+    assertEquals(List.of(), copy.getRole_ids());
+    assertNull(copy.getSource());
+    assertNull(copy.getEmail());
+  }
+
+  private static ZammadUser user(String login, int id)
+  {
+    ZammadUser user = new ZammadUser();
+    user.setLogin(login);
+    user.setId(id);
+    return user;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class SortedSpoolTest
+{
+  @Test
+  public void mergesChunksInAscendingOrder() throws IOException
+  {
+    List<String> expected = new ArrayList<>();
+
+    try (SortedSpool spool = new SortedSpool("test", 3))
+    {
+      // 10 lines in chunks of 3, the last chunk stays in memory
+      for (String line : new String[]
+      {
+        "m", "c", "x", "a", "k", "b", "z", "c", "q", "ab"
+      })
+      {
+        spool.add(line);
+        expected.add(line);
+      }
+
+      expected.sort(null);
+      assertEquals(10, spool.size());
+      assertEquals(expected, toList(spool));
+      // a spool can be iterated more than once
+      assertEquals(expected, toList(spool));
+    }
+  }
+
+  @Test
+  public void inMemoryOnly() throws IOException
+  {
+    try (SortedSpool spool = new SortedSpool("test"))
+    {
+      spool.add("b");
+      spool.add("a");
+      assertEquals(List.of("a", "b"), toList(spool));
+    }
+  }
+
+  private static List<String> toList(SortedSpool spool)
+  {
+    List<String> lines = new ArrayList<>();
+    spool.forEach(lines::add);
+    return lines;
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import l9g.app.ldap2zammad.model.ZammadRole;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ZammadUserIndexTest
+{
+  private static List<ZammadRole> roles()
+  {
+    List<ZammadRole> roles = new ArrayList<>();
+
+    for (String name : new String[]
+    {
+      "Admin", "Agent", "Customer"
+    })
+    {
+      ZammadRole role = new ZammadRole();
+      role.setId(roles.size() + 1);
+      role.setName(name);
+      roles.add(role);
+    }
+
+    return roles;
+  }
+
+  private static ZammadUser user(String login, int id)
+  {
+    ZammadUser user = new ZammadUser();
+    user.setId(id);
+    user.setLogin(login);
+    user.setFirstname("Max");
+    user.setLastname("Mustermann");
+    user.setEmail("max.mustermann@example.de");
+    return user;
+  }
+
+  @Test
+  public void findIgnoresCase()
+  {
+    ZammadUserIndex index = new ZammadUserIndex(roles());
+
+    // more users than the initial capacity
+    for (int i = 0; i < 3000; i++)
+    {
+      index.add(user("User" + i, i + 10));
+    }
+
+    assertEquals(3000, index.size());
+    int i = index.find(" user2999 ");
+    assertEquals(3009, index.getId(i));
+    assertEquals("user2999", index.getLogin(i));
+    assertFalse(index.contains("user3000"));
+  }
+
+  @Test
+  public void fingerprintOfRoleIdsAndRoleNames()
+  {
+    ZammadUserIndex index = new ZammadUserIndex(roles());
+    ZammadUser zammadUser = user("alice", 42);
+    zammadUser.setRole_ids(List.of(3, 2));
+    index.add(zammadUser);
+
+    // the update of the sync sets role names
+    ZammadUser updateUser = user("Alice", 42);
+    updateUser.setRoles(List.of("Agent", "Customer"));
+
+    assertEquals(index.getFingerprint(index.find("alice")),
+      index.fingerprint(updateUser));
+    assertTrue(index.hasAnyRole(index.find("alice"),
+      index.roleMask(List.of(1, 2))));
+    assertFalse(index.hasAnyRole(index.find("alice"),
+      index.roleMask(List.of(1))));
+
+    updateUser.setLastname("Musterfrau");
+    assertNotEquals(index.getFingerprint(index.find("alice")),
+      index.fingerprint(updateUser));
+
+    updateUser.setLastname("Mustermann");
+    updateUser.setRoles(List.of("Customer"));
+    assertNotEquals(index.getFingerprint(index.find("alice")),
+      index.fingerprint(updateUser));
+  }
+
+  @Test
+  public void fingerprintWithOrganizations()
+  {
+    ZammadUser user = user("alice", 42);
+    user.setOrganization_id(5);
+    user.setOrganization_ids(List.of(7, 6));
+
+    ZammadUser sorted = user("alice", 42);
+    sorted.setOrganization_id(5);
+    sorted.setOrganization_ids(List.of(6, 7));
+
+    ZammadUserIndex index = new ZammadUserIndex(roles(), true);
+    assertEquals(index.fingerprint(user), index.fingerprint(sorted));
+
+    sorted.setOrganization_id(6);
+    assertNotEquals(index.fingerprint(user), index.fingerprint(sorted));
+
+    // without organizations the organization is ignored
+    index = new ZammadUserIndex(roles(), false);
+    assertEquals(index.fingerprint(user), index.fingerprint(sorted));
+  }
+
+  @Test
+  public void onlyFingerprintedFieldsCanBeSkipped()
+  {
+    ZammadUserIndex index = new ZammadUserIndex(roles());
+    ZammadUser user = user("alice", 42);
+    assertTrue(index.isFingerprinted(user));
+
+    user.setNote("not fingerprinted");
+    assertFalse(index.isFingerprinted(user));
+
+    user = user("alice", 42);
+    user.setOrganization_id(5);
+    assertFalse(index.isFingerprinted(user));
+    assertTrue(new ZammadUserIndex(roles(), true).isFingerprinted(user));
+  }
+
+  @Test
+  public void partialUsersAreNeverSkipped()
+  {
+    ZammadUserIndex index = new ZammadUserIndex(roles());
+    index.setPartialUsers();
+    assertFalse(index.isFingerprinted(user("alice", 42)));
+  }
+}
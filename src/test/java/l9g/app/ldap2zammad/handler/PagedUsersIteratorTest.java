@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import l9g.app.ldap2zammad.Config;
+import l9g.app.ldap2zammad.model.ZammadUserProjection;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class PagedUsersIteratorTest
+{
+  @Test
+  public void pagesUntilEmptyPageWhenServerCapsPageSize()
+  {
+    int perPage = 1000;
+    int serverMaxPerPage = 500;
+    List<ZammadUserProjection> serverUsers = users(1200);
+    List<Integer> requestedPages = new ArrayList<>();
+
+    ZammadHandler.PagedUsersIterator iterator
+      = new ZammadHandler.PagedUsersIterator(page ->
+      {
+        requestedPages.add(page);
+        // zammad computes the offset from the capped page size
+        int pageSize = Math.min(perPage, serverMaxPerPage);
+        int from = Math.min((page - 1) * pageSize, serverUsers.size());
+        int to = Math.min(from + pageSize, serverUsers.size());
+        return Flux.fromIterable(serverUsers.subList(from, to));
+      });
+
+    List<String> logins = new ArrayList<>();
+    iterator.forEachRemaining(user -> logins.add(user.getLogin()));
+
+    assertEquals(1200, logins.size());
+    assertEquals("user0", logins.get(0));
+    assertEquals("user1199", logins.get(1199));
+    assertEquals(List.of(1, 2, 3, 4), requestedPages);
+  }
+
+  @Test
+  public void emptyResult()
+  {
+    List<Integer> requestedPages = new ArrayList<>();
+
+    ZammadHandler.PagedUsersIterator iterator
+      = new ZammadHandler.PagedUsersIterator(page ->
+      {
+        requestedPages.add(page);
+        return Flux.empty();
+      });
+
+    assertFalse(iterator.hasNext());
+    assertFalse(iterator.hasNext());
+    assertEquals(List.of(1), requestedPages);
+  }
+
+  @Test
+  public void usersPerPageIsClamped()
+  {
+    Config config = new Config();
+
+    ReflectionTestUtils.setField(config, "zammadUsersPerPage", 1000);
+    assertEquals(Config.ZAMMAD_MAX_PER_PAGE, config.getZammadUsersPerPage());
+
+    ReflectionTestUtils.setField(config, "zammadUsersPerPage", 100);
+    assertEquals(100, config.getZammadUsersPerPage());
+  }
+
+  private static List<ZammadUserProjection> users(int count)
+  {
+    return IntStream.range(0, count).mapToObj(i ->
+    {
+      ZammadUserProjection user = new ZammadUserProjection();
+      user.setId(i + 1);
+      user.setLogin("user" + i);
+      return user;
+    }).toList();
+  }
+}
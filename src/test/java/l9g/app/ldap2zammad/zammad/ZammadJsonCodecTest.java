@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.zammad;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import l9g.app.ldap2zammad.model.ZammadUserProjection;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ZammadJsonCodecTest
+{
+  @Test
+  public void writeMatchesDefaultMapper() throws Throwable
+  {
+    ZammadUser user = new ZammadUser();
+    user.setId(4711);
+    user.setLogin("eid9519122");
+    user.setFirstname("Max");
+    user.setLastname("Mustermann");
+    user.setEmail("max.mustermann@example.de");
+    user.setSource("ldap2zammad");
+    user.setRoles(List.of("Customer", "_ldap2zammad_Staff"));
+    // NON_EMPTY, not written
+    user.setNote("");
+    user.setOrganization_ids(List.of());
+    // NON_NULL, an empty map removes the group access
+    user.setGroup_ids(Map.of());
+
+    // the mapper of the update path before the shared codec
+    JsonNode expected = new ObjectMapper().readTree(
+      new ObjectMapper().writeValueAsBytes(user));
+    JsonNode actual = new ObjectMapper().readTree(
+      new ZammadJsonCodec().write(user));
+
+    assertEquals(expected, actual);
+    assertFalse(actual.has("id"));
+    assertFalse(actual.has("note"));
+    assertFalse(actual.has("organization_ids"));
+    assertTrue(actual.has("group_ids"));
+    assertEquals(0, actual.get("group_ids").size());
+    assertEquals("eid9519122", actual.get("login").asText());
+  }
+
+  @Test
+  public void readProjection() throws Throwable
+  {
+    String json = "{\"id\":42,\"login\":\"alice\",\"firstname\":\"Alice\","
+      + "\"source\":\"ldap2zammad\",\"role_ids\":[3,4],"
+      + "\"updated_at\":\"2023-11-14T22:13:20.000Z\","
+      + "\"preferences\":{\"locale\":\"de-de\"},\"group_ids\":{}}";
+
+    ZammadUserProjection projection = new ZammadJsonCodec().getObjectMapper()
+      .readValue(json, ZammadUserProjection.class);
+    ZammadUser user = projection.toZammadUser();
+
+    assertEquals(42, user.getId());
+    assertEquals("alice", user.getLogin());
+    assertEquals("Alice", user.getFirstname());
+    assertEquals("ldap2zammad", user.getSource());
+    assertEquals(List.of(3, 4), user.getRole_ids());
+    assertEquals(1700000000000l, user.getUpdated_at().getTime());
+  }
+
+  @Test
+  public void projectionRoundTrip() throws Throwable
+  {
+    ObjectMapper objectMapper = new ZammadJsonCodec().getObjectMapper();
+
+    ZammadUser user = new ZammadUser();
+    user.setId(7);
+    user.setLogin("bob");
+    user.setLastname("Builder");
+    user.setEmail("bob@example.de");
+    user.setVerified(true);
+    user.setUpdated_at(new Date(1700000000000l));
+    user.setOrganization_id(3);
+    user.setOrganization_ids(List.of(5, 6));
+
+    ZammadUserProjection projection = objectMapper.readValue(
+      objectMapper.writeValueAsBytes(ZammadUserProjection.of(user)),
+      ZammadUserProjection.class);
+    ZammadUser result = projection.toZammadUser();
+
+    assertEquals(7, result.getId());
+    assertEquals("bob", result.getLogin());
+    assertEquals("Builder", result.getLastname());
+    assertEquals("bob@example.de", result.getEmail());
+    assertTrue(result.getVerified());
+    assertEquals(1700000000000l, result.getUpdated_at().getTime());
+    assertEquals(3, result.getOrganization_id());
+    assertEquals(List.of(5, 6), result.getOrganization_ids());
+  }
+}
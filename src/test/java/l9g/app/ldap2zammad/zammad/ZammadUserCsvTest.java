@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 Thorsten Ludewig (t.ludewig@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package l9g.app.ldap2zammad.zammad;
+
+import java.util.List;
+import java.util.Map;
+import l9g.app.ldap2zammad.model.ZammadUser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Thorsten Ludewig (t.ludewig@gmail.com)
+ */
+public class ZammadUserCsvTest
+{
+  @Test
+  public void rendersUsedColumnsEscaped()
+  {
+    ZammadUser alice = new ZammadUser();
+    alice.setLogin("alice");
+    alice.setFirstname("Max \"Mo\"");
+    alice.setLastname("Muster, Mann");
+    alice.setRoles(List.of("Customer", "Agent"));
+
+    ZammadUser bob = new ZammadUser();
+    bob.setLogin("bob");
+    bob.setEmail("bob@example.de");
+    bob.setRoles(List.of());
+
+    assertEquals("login,firstname,lastname,email,roles\n"
+      + "\"alice\",\"Max \"\"Mo\"\"\",\"Muster, Mann\",,\"Customer~~~Agent\"\n"
+      + "\"bob\",,,\"bob@example.de\",\n",
+      ZammadUserCsv.render(List.of(alice, bob)));
+  }
+
+  @Test
+  public void rendersMultiLineValues()
+  {
+    ZammadUser alice = new ZammadUser();
+    alice.setLogin("alice");
+    alice.setNote("first line\nsecond line");
+
+    assertEquals("login,note\n\"alice\",\"first line\nsecond line\"\n",
+      ZammadUserCsv.render(List.of(alice)));
+  }
+
+  @Test
+  public void groupAccessIsNotImportable()
+  {
+    ZammadUser user = new ZammadUser();
+    user.setLogin("alice");
+    user.setRoles(List.of("Agent"));
+    user.setOrganization("Example");
+    assertTrue(ZammadUserCsv.isImportable(user));
+
+    // an empty map is nothing to import
+    user.setGroup_ids(Map.of());
+    assertTrue(ZammadUserCsv.isImportable(user));
+
+    user.setGroup_ids(Map.of("1", new String[]
+    {
+      "full"
+    }));
+    assertFalse(ZammadUserCsv.isImportable(user));
+
+    user.setGroup_ids(null);
+    user.setOrganization_ids(List.of(5));
+    assertFalse(ZammadUserCsv.isImportable(user));
+
+    user.setOrganization_ids(null);
+    user.setOrganizations(List.of("Other"));
+    assertFalse(ZammadUserCsv.isImportable(user));
+  }
+}